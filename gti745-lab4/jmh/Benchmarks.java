@@ -0,0 +1,275 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Synthesizer;
+
+import bench.Workload;
+
+
+// The operations measured by the JMH benchmarks (see bench.HotPaths), by name.
+// They are written here, in the default package, since that is where the rest of the application is.
+public class Benchmarks {
+
+	// A score with about ``notesPerBeat'' random notes in each beat.
+	static Score createScore( int numBeats, int notesPerBeat, long seed ) {
+		Random random = new Random( seed );
+		int [] durations = { Constant.tempsDoubleCroche, Constant.tempsCroche, Constant.tempsNoire, Constant.tempsBlanche, Constant.tempsRonde };
+		Score score = new Score();
+		score.setNumBeats( numBeats );
+		for ( int i = numBeats * notesPerBeat; i > 0; --i )
+			score.setNote( random.nextInt( numBeats ), random.nextInt( score.numPitches ), durations[ random.nextInt( durations.length ) ] );
+		return score;
+	}
+
+	// A synthesizer whose clock is set by hand, and whose receiver only sums the timestamps of the events,
+	// so that only the cost of producing the events is measured.
+	static class FakeSynthesizer implements InvocationHandler {
+		long microsecondPosition = 0;
+		long sumOfTimeStamps = 0;
+		final Receiver receiver = new Receiver() {
+			public void send( MidiMessage message, long timeStamp ) { sumOfTimeStamps += timeStamp; }
+			public void close() { }
+		};
+		Synthesizer create() {
+			return (Synthesizer)Proxy.newProxyInstance(
+				Synthesizer.class.getClassLoader(), new Class< ? >[] { Synthesizer.class }, this
+			);
+		}
+		public Object invoke( Object proxy, Method method, Object[] args ) {
+			if ( method.getName().equals( "getReceiver" ) ) return receiver;
+			if ( method.getName().equals( "getMicrosecondPosition" ) ) return microsecondPosition;
+			if ( method.getReturnType() == boolean.class ) return false;
+			return null;
+		}
+	}
+
+	// Returns a new instance of the named workload, or null if there is none.
+	public static Workload create( String name ) {
+		switch ( name ) {
+
+		case "Score.draw":
+			return new Workload() {
+				Score score;
+				GraphicsWrapper gw = new GraphicsWrapper();
+				BufferedImage image = new BufferedImage( 1024, 768, BufferedImage.TYPE_INT_RGB );
+				int frame = 0;
+				public void setUp( int size ) {
+					score = createScore( size, 3, 1 );
+					gw.resize( image.getWidth(), image.getHeight() );
+					gw.frame( score.getBoundingRectangle(), false );
+				}
+				public long run() {
+					Graphics2D g = image.createGraphics();
+					gw.set( g );
+					gw.clear( 1, 1, 1 );
+					gw.setCoordinateSystemToWorldSpaceUnits();
+					// move the highlighted row and column, as the mouse and playback do
+					frame ++;
+					score.draw( gw, true, 21 + frame % 88, frame % score.numBeats, ( frame / 2 ) % score.numBeats );
+					g.dispose();
+					return image.getRGB( frame % image.getWidth(), 0 );
+				}
+			};
+
+		case "MyCanvas.beatElapsed":
+			return new Workload() {
+				MyCanvas canvas;
+				public void setUp( int size ) {
+					canvas = new MyCanvas( new SimplePianoRoll() );
+					canvas.score = createScore( size, 3, 2 );
+					canvas.score.publish();
+				}
+				public long run() {
+					canvas.beatElapsed( 0 );
+					return canvas.currentBeat;
+				}
+			};
+
+		case "PlaybackEngine.pump":
+			return new Workload() {
+				FakeSynthesizer synthesizer = new FakeSynthesizer();
+				PlaybackEngine engine;
+				Score score;
+				public void setUp( int size ) {
+					score = createScore( size, 3, 3 );
+					synthesizer.microsecondPosition = 0;
+					engine = new PlaybackEngine( synthesizer.create() );
+					engine.start( score.publish(), 0, 100000 );
+				}
+				public long run() {
+					// one beat
+					synthesizer.microsecondPosition += 100000;
+					engine.pump( score.getSnapshot() );
+					return synthesizer.sumOfTimeStamps;
+				}
+				public void tearDown() {
+					engine.stop();
+				}
+			};
+
+		case "PlaybackEngine.pump, 1024 beats":
+			return new Workload() {
+				FakeSynthesizer synthesizer = new FakeSynthesizer();
+				PlaybackEngine engine;
+				Score score;
+				public void setUp( int size ) {
+					// the same number of notes in all, spread over the tracks
+					score = createScore( 1024, 0, 3 );
+					Random random = new Random( 3 );
+					for ( int t = 1; t < size; ++t )
+						score.addTrack();
+					for ( int i = 1024 * 3; i > 0; --i )
+						score.setNote( random.nextInt( size ), random.nextInt( 1024 ), random.nextInt( score.numPitches ), Constant.tempsNoire );
+					synthesizer.microsecondPosition = 0;
+					engine = new PlaybackEngine( synthesizer.create() );
+					engine.start( score.publish(), 0, 100000 );
+				}
+				public long run() {
+					// one beat
+					synthesizer.microsecondPosition += 100000;
+					engine.pump( score.getSnapshot() );
+					return synthesizer.sumOfTimeStamps;
+				}
+				public void tearDown() {
+					engine.stop();
+				}
+			};
+
+		case "PlaybackEngine.pump after an edit":
+			return new Workload() {
+				FakeSynthesizer synthesizer = new FakeSynthesizer();
+				PlaybackEngine engine;
+				Score score;
+				int i = 0;
+				public void setUp( int size ) {
+					score = createScore( size, 3, 3 );
+					synthesizer.microsecondPosition = 0;
+					engine = new PlaybackEngine( synthesizer.create() );
+					engine.start( score.publish(), 0, 100000 );
+				}
+				public long run() {
+					// toggle one note, as drawing during playback does, then play one beat
+					i ++;
+					int beat = (int)( i * 7919L % score.numBeats ), pitch = i % score.numPitches;
+					if ( score.isNoteAt( beat, pitch ) )
+						score.removeNote( beat, pitch );
+					else score.setNote( beat, pitch, Constant.tempsNoire );
+					synthesizer.microsecondPosition += 100000;
+					engine.pump( score.publish() );
+					return synthesizer.sumOfTimeStamps;
+				}
+				public void tearDown() {
+					engine.stop();
+				}
+			};
+
+		case "BeatzFormat.write":
+			return new Workload() {
+				Score score;
+				File file;
+				public void setUp( int size ) throws Exception {
+					score = createScore( size, 3, 4 );
+					file = File.createTempFile( "benchmark", ".beatz" );
+				}
+				public long run() throws Exception {
+					BeatzFormat.write( score, file );
+					return file.length();
+				}
+				public void tearDown() {
+					file.delete();
+				}
+			};
+
+		case "BeatzFormat.read":
+			return new Workload() {
+				File file;
+				public void setUp( int size ) throws Exception {
+					file = File.createTempFile( "benchmark", ".beatz" );
+					BeatzFormat.write( createScore( size, 3, 5 ), file );
+				}
+				public long run() throws Exception {
+					return BeatzFormat.read( file ).getNumNotes();
+				}
+				public void tearDown() {
+					file.delete();
+				}
+			};
+
+		case "LegacyBeatzParser.parse":
+			return new Workload() {
+				byte [] text;
+				Score score;
+				public void setUp( int size ) {
+					Score score = createScore( size, 3, 6 );
+					StringBuilder b = new StringBuilder();
+					for ( int beat = 0; beat < score.numBeats; ++beat ) {
+						for ( int pitch = 0; pitch < score.numPitches; ++pitch )
+							b.append( score.getNoteDuration( beat, pitch ) * BeatzFormat.OLD_TICKS_PER_BEAT / Constant.tempsNoire ).append( ';' );
+						b.append( '\n' );
+					}
+					text = b.toString().getBytes();
+				}
+				public void setUpInvocation() {
+					score = new Score();
+				}
+				public long run() throws Exception {
+					new LegacyBeatzParser().parse( ByteBuffer.wrap( text ), score );
+					return score.getNumNotes();
+				}
+			};
+
+		case "Point2DUtil.computeConvexHull":
+			return new Workload() {
+				ArrayList< Point2D > points = new ArrayList< Point2D >();
+				public void setUp( int size ) {
+					Random random = new Random( 7 );
+					points.clear();
+					for ( int i = 0; i < size; ++i )
+						points.add( new Point2D( random.nextFloat() * 1000, random.nextFloat() * 1000 ) );
+				}
+				public long run() {
+					return Point2DUtil.computeConvexHull( points ).size();
+				}
+			};
+
+		case "RadialMenuWidget.dragEvent":
+			return new Workload() {
+				RadialMenuWidget menu = new RadialMenuWidget();
+				int [] xs, ys;
+				int i = 0;
+				public void setUp( int size ) {
+					for ( int item = 1; item <= 8; item += 2 )
+						menu.setItemLabelAndID( item, "Item " + item, item );
+					menu.pressEvent( 0, 0 );
+					// positions around the center, both inside and outside the neutral zone,
+					// so that items with and without a label get hit
+					xs = new int[ size ];
+					ys = new int[ size ];
+					for ( int k = 0; k < size; ++k ) {
+						double theta = 2 * Math.PI * k / size;
+						double radius = k % 4 == 0 ? 5 : 80;
+						xs[k] = (int)( radius * Math.cos( theta ) );
+						ys[k] = (int)( radius * Math.sin( theta ) );
+					}
+				}
+				public long run() {
+					i = ( i + 1 ) % xs.length;
+					return menu.dragEvent( xs[i], ys[i] ) + menu.getSelection();
+				}
+			};
+
+		default:
+			return null;
+		}
+	}
+
+}
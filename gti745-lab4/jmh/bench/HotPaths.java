@@ -0,0 +1,134 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// JMH benchmarks of the hot paths of the application, at several sizes,
+// to have numbers to compare against before and after changing them.
+// Each nested class measures one workload of Benchmarks (in the default package),
+// with its sizes as a parameter. See pom.xml for how to run them.
+public class HotPaths {
+
+	// The settings apply to all the subclasses.
+	@BenchmarkMode( Mode.AverageTime )
+	@OutputTimeUnit( TimeUnit.NANOSECONDS )
+	@Warmup( iterations = 5, time = 1 )
+	@Measurement( iterations = 5, time = 1 )
+	@Fork( value = 1, jvmArgsAppend = "-Djava.awt.headless=true" )
+	@State( Scope.Thread )
+	public static abstract class WorkloadBenchmark {
+		protected Workload workload;
+
+		protected abstract String getWorkloadName();
+		protected abstract int getSize();
+
+		@Setup( Level.Trial )
+		public void setUp() throws Exception {
+			workload = Workload.create( getWorkloadName() );
+			workload.setUp( getSize() );
+		}
+
+		@TearDown( Level.Trial )
+		public void tearDown() throws Exception {
+			workload.tearDown();
+		}
+
+		@Benchmark
+		public long run() throws Exception {
+			return workload.run();
+		}
+	}
+
+	public static class ScoreDraw extends WorkloadBenchmark {
+		@Param( { "128", "1024", "8192" } )
+		public int beats;
+		protected String getWorkloadName() { return "Score.draw"; }
+		protected int getSize() { return beats; }
+	}
+
+	public static class BeatElapsed extends WorkloadBenchmark {
+		@Param( { "128", "1024", "8192" } )
+		public int beats;
+		protected String getWorkloadName() { return "MyCanvas.beatElapsed"; }
+		protected int getSize() { return beats; }
+	}
+
+	public static class Pump extends WorkloadBenchmark {
+		@Param( { "128", "1024", "8192" } )
+		public int beats;
+		protected String getWorkloadName() { return "PlaybackEngine.pump"; }
+		protected int getSize() { return beats; }
+	}
+
+	// 1024 beats
+	public static class PumpTracks extends WorkloadBenchmark {
+		@Param( { "1", "4", "16" } )
+		public int tracks;
+		protected String getWorkloadName() { return "PlaybackEngine.pump, 1024 beats"; }
+		protected int getSize() { return tracks; }
+	}
+
+	public static class PumpAfterEdit extends WorkloadBenchmark {
+		@Param( { "128", "1024", "8192" } )
+		public int beats;
+		protected String getWorkloadName() { return "PlaybackEngine.pump after an edit"; }
+		protected int getSize() { return beats; }
+	}
+
+	public static class BeatzWrite extends WorkloadBenchmark {
+		@Param( { "128", "1024", "8192" } )
+		public int beats;
+		protected String getWorkloadName() { return "BeatzFormat.write"; }
+		protected int getSize() { return beats; }
+	}
+
+	public static class BeatzRead extends WorkloadBenchmark {
+		@Param( { "128", "1024", "8192" } )
+		public int beats;
+		protected String getWorkloadName() { return "BeatzFormat.read"; }
+		protected int getSize() { return beats; }
+	}
+
+	public static class LegacyParse extends WorkloadBenchmark {
+		@Param( { "128", "1024", "8192" } )
+		public int beats;
+		protected String getWorkloadName() { return "LegacyBeatzParser.parse"; }
+		protected int getSize() { return beats; }
+
+		// Each parse needs an empty score; building it isn't part of parsing.
+		// (A parse takes hundreds of microseconds or more, so the overhead of a setup per invocation is small.)
+		@Setup( Level.Invocation )
+		public void setUpInvocation() throws Exception {
+			workload.setUpInvocation();
+		}
+	}
+
+	public static class ConvexHull extends WorkloadBenchmark {
+		@Param( { "100", "1000", "10000" } )
+		public int points;
+		protected String getWorkloadName() { return "Point2DUtil.computeConvexHull"; }
+		protected int getSize() { return points; }
+	}
+
+	public static class RadialMenuDrag extends WorkloadBenchmark {
+		@Param( { "64" } )
+		public int positions;
+		protected String getWorkloadName() { return "RadialMenuWidget.dragEvent"; }
+		protected int getSize() { return positions; }
+	}
+
+}
@@ -0,0 +1,27 @@
+package bench;
+
+
+// One of the operations measured by the benchmarks, and the state it needs.
+//
+// JMH only accepts benchmarks in a named package, and classes in a named package
+// can't refer to those of the default package (where the whole application is),
+// so the operations themselves are written in the default package (see Benchmarks.create())
+// and found by name.
+public abstract class Workload {
+
+	// Prepares the state for the given size; not timed.
+	public abstract void setUp( int size ) throws Exception;
+	// Called before each operation, for those that consume their state; not timed.
+	public void setUpInvocation() throws Exception { }
+	// Performs one operation. The result is consumed by JMH, so that the work can't be optimized away.
+	public abstract long run() throws Exception;
+	public void tearDown() throws Exception { }
+
+	public static Workload create( String name ) throws Exception {
+		Workload workload = (Workload)Class.forName( "Benchmarks" ).getMethod( "create", String.class ).invoke( null, name );
+		if ( workload == null )
+			throw new IllegalArgumentException( "No workload named " + name );
+		return workload;
+	}
+
+}
@@ -0,0 +1,269 @@
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+
+
+// Processes a directory of .beatz files without any window (no display is needed),
+// using only Score and the file formats, several files at a time (see TaskExecutors).
+//
+//    SimplePianoRoll --batch <directory> [--threads <n>] [--out <directory>]
+//                    [--tempo <milliseconds per beat>] [validate] [stats] [convert] [render]
+//
+// validate   reads each file, and reports empty scores, notes that start past the end or out of the range
+//            of pitches, notes with a bad duration, and notes that overlap another one of the same pitch and track
+// stats      prints the number of notes, their density, and how many there are of each duration
+// convert    writes each file as binary .beatz and as .mid into the output directory
+// render     writes each file as .wav into the output directory (see OfflineRenderer)
+//
+// With no operation given, files are validated and their statistics printed.
+// Files are reported as soon as each is done (so not necessarily in order), followed by the totals and the throughput.
+public class BatchProcessor {
+
+	private File inputDirectory;
+	private File outputDirectory = null;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private long microsecondsPerBeat = 150000;
+	private boolean validate = false;
+	private boolean stats = false;
+	private boolean convert = false;
+	private boolean render = false;
+
+	// Outcome of processing one file.
+	private static class Result {
+		File file;
+		long numBytes;
+		int numBeats;
+		int numNotes;
+		long elapsedNanoseconds;
+		String report;
+		IOException error;
+	}
+
+	// Returns null if the arguments can't be parsed.
+	public static BatchProcessor fromCommandLine( String[] args ) {
+		BatchProcessor b = new BatchProcessor();
+		try {
+			for ( int i = 1; i < args.length; ++i ) {
+				String a = args[i];
+				if ( a.equals( "--threads" ) ) b.numThreads = Math.max( 1, Integer.parseInt( args[++i] ) );
+				else if ( a.equals( "--out" ) ) b.outputDirectory = new File( args[++i] );
+				else if ( a.equals( "--tempo" ) ) b.microsecondsPerBeat = Math.max( 1, Integer.parseInt( args[++i] ) ) * 1000L;
+				else if ( a.equals( "validate" ) ) b.validate = true;
+				else if ( a.equals( "stats" ) ) b.stats = true;
+				else if ( a.equals( "convert" ) ) b.convert = true;
+				else if ( a.equals( "render" ) ) b.render = true;
+				else if ( b.inputDirectory == null && ! a.startsWith( "--" ) ) b.inputDirectory = new File( a );
+				else return null;
+			}
+		}
+		catch ( NumberFormatException e ) {
+			return null;
+		}
+		catch ( ArrayIndexOutOfBoundsException e ) {
+			return null;
+		}
+		if ( b.inputDirectory == null )
+			return null;
+		if ( ! ( b.validate || b.stats || b.convert || b.render ) )
+			b.validate = b.stats = true;
+		if ( b.outputDirectory == null )
+			b.outputDirectory = new File( b.inputDirectory, "out" );
+		return b;
+	}
+
+	public static void printUsage() {
+		System.out.println(
+			"Usage: --batch <directory> [--threads <n>] [--out <directory>] [--tempo <ms per beat>]"
+			+ " [validate] [stats] [convert] [render]"
+		);
+	}
+
+	private static String baseName( File file ) {
+		String name = file.getName();
+		int dot = name.lastIndexOf( '.' );
+		return dot > 0 ? name.substring( 0, dot ) : name;
+	}
+
+	// Returns a description of the problems found, or null if there are none.
+	private static String validate( Score score ) {
+		if ( score.numBeats <= 0 || score.getNumNotes() == 0 )
+			return "empty score";
+		int pastTheEnd = 0, outOfRange = 0, badDurations = 0, overlapping = 0;
+		long [] endTickOfPitch = new long[ PitchOccupancy.MAX_PITCHES ];
+		for ( int t = 0; t < score.getNumTracks(); ++t ) {
+			Arrays.fill( endTickOfPitch, Long.MIN_VALUE );
+			// in order of start, so a note overlaps a previous one of its pitch if it starts before that one ends
+			NoteStore.Cursor c = score.getTrack( t ).notes.cursor();
+			while ( c.next() ) {
+				if ( c.beat() < 0 || c.beat() >= score.numBeats )
+					pastTheEnd ++;
+				if ( c.pitch() >= score.numPitches )
+					outOfRange ++;
+				if ( c.duration() <= 0 )
+					badDurations ++;
+				long tick = (long)c.beat() * PlaybackEngine.TICKS_PER_BEAT + c.offset();
+				if ( tick < endTickOfPitch[ c.pitch() ] )
+					overlapping ++;
+				endTickOfPitch[ c.pitch() ] = Math.max( endTickOfPitch[ c.pitch() ], tick + c.duration() );
+			}
+		}
+		StringBuilder problems = new StringBuilder();
+		appendProblem( problems, pastTheEnd, "notes past the end" );
+		appendProblem( problems, outOfRange, "notes out of the range of pitches" );
+		appendProblem( problems, badDurations, "notes with a bad duration" );
+		appendProblem( problems, overlapping, "overlapping notes" );
+		return problems.length() == 0 ? null : problems.toString();
+	}
+
+	private static void appendProblem( StringBuilder problems, int count, String description ) {
+		if ( count == 0 )
+			return;
+		if ( problems.length() > 0 )
+			problems.append( ", " );
+		problems.append( count ).append( ' ' ).append( description );
+	}
+
+	private static String computeStatistics( Score score ) {
+		int [] durations = { Constant.tempsDoubleCroche, Constant.tempsCroche, Constant.tempsNoire, Constant.tempsBlanche, Constant.tempsRonde };
+		int [] counts = new int[ durations.length + 1 ]; // the last one counts other durations
+		int numNotes = 0, maxNotesPerBeat = 0;
+		int [] notesAtBeat = new int[ Math.max( 0, score.numBeats ) ]; // in all the tracks
+		for ( int t = 0; t < score.getNumTracks(); ++t ) {
+			NoteStore.Cursor c = score.getTrack( t ).notes.cursor( 0, score.numBeats );
+			while ( c.next() ) {
+				numNotes ++;
+				maxNotesPerBeat = Math.max( maxNotesPerBeat, ++notesAtBeat[ c.beat() ] );
+				int k = 0;
+				while ( k < durations.length && durations[k] != c.duration() )
+					k ++;
+				counts[k] ++;
+			}
+		}
+		return String.format(
+			"%d tracks, %d notes, %.2f per beat (max %d), durations %s",
+			score.getNumTracks(), numNotes, score.numBeats == 0 ? 0.0 : numNotes / (double)score.numBeats, maxNotesPerBeat,
+			Arrays.toString( counts )
+		);
+	}
+
+	private Result process( File file ) {
+		Result r = new Result();
+		r.file = file;
+		r.numBytes = file.length();
+		long startTime = System.nanoTime();
+		StringBuilder report = new StringBuilder();
+		try {
+			Score score = BeatzFormat.read( file );
+			r.numBeats = score.numBeats;
+			r.numNotes = score.getNumNotes();
+			if ( validate ) {
+				String problems = validate( score );
+				report.append( problems == null ? " valid;" : " INVALID: " + problems + ";" );
+			}
+			if ( stats )
+				report.append( ' ' ).append( computeStatistics( score ) ).append( ';' );
+			if ( convert ) {
+				String name = baseName( file );
+				BeatzFormat.write( score, new File( outputDirectory, name + ".beatz" ) );
+				MidiFileConverter.write( score, microsecondsPerBeat, 1, new File( outputDirectory, name + ".mid" ) );
+				report.append( " converted;" );
+			}
+			if ( render ) {
+				OfflineRenderer renderer = new OfflineRenderer();
+				renderer.render( score, microsecondsPerBeat, new File( outputDirectory, baseName( file ) + ".wav" ) );
+				report.append( " rendered at " ).append( String.format( "%.1fx", renderer.getSpeedup() ) ).append( " real time;" );
+			}
+		}
+		catch ( IOException e ) {
+			r.error = e;
+		}
+		r.elapsedNanoseconds = System.nanoTime() - startTime;
+		r.report = report.toString();
+		return r;
+	}
+
+	// Returns the number of files that could not be processed.
+	public int run() {
+		File [] files = inputDirectory.listFiles( new FileFilter() {
+			public boolean accept( File f ) {
+				return f.isFile() && f.getName().endsWith( ".beatz" );
+			}
+		} );
+		if ( files == null ) {
+			System.out.println( "Not a directory: " + inputDirectory );
+			return 1;
+		}
+		Arrays.sort( files );
+		if ( ( convert || render ) && ! outputDirectory.isDirectory() && ! outputDirectory.mkdirs() ) {
+			System.out.println( "Could not create " + outputDirectory );
+			return files.length;
+		}
+		System.out.println(
+			"Processing " + files.length + " files, " + numThreads + " at a time, on "
+			+ ( TaskExecutors.usesVirtualThreads() ? "virtual" : "platform" ) + " threads"
+		);
+
+		long startTime = System.nanoTime();
+		// At most numThreads files are processed at once, on the shared task executor;
+		// each time one is done, it is reported and the next one is started.
+		CompletionService< Result > completionService = new ExecutorCompletionService< Result >( TaskExecutors.getTaskExecutor() );
+		int numStarted = 0, numDone = 0;
+		int numFailed = 0;
+		long totalBytes = 0, totalNotes = 0, totalBeats = 0, busyNanoseconds = 0;
+		while ( numDone < files.length ) {
+			while ( numStarted < files.length && numStarted - numDone < numThreads ) {
+				final File f = files[ numStarted++ ];
+				completionService.submit( new Callable< Result >() {
+					public Result call() {
+						return process( f );
+					}
+				} );
+			}
+			Result r;
+			try {
+				r = completionService.take().get();
+			}
+			catch ( InterruptedException e ) {
+				e.printStackTrace();
+				break;
+			}
+			catch ( ExecutionException e ) {
+				e.printStackTrace();
+				numDone ++;
+				numFailed ++;
+				continue;
+			}
+			numDone ++;
+			double ms = r.elapsedNanoseconds / 1e6;
+			if ( r.error != null ) {
+				numFailed ++;
+				System.out.println( r.file.getName() + ": FAILED (" + r.error.getMessage() + ") in " + String.format( "%.2f ms", ms ) );
+				continue;
+			}
+			totalBytes += r.numBytes;
+			totalNotes += r.numNotes;
+			totalBeats += r.numBeats;
+			busyNanoseconds += r.elapsedNanoseconds;
+			System.out.println( String.format(
+				"%s: %d bytes, %d beats in %.2f ms (%.1f MB/s);%s",
+				r.file.getName(), r.numBytes, r.numBeats, ms, r.numBytes / 1e3 / Math.max( ms, 1e-3 ), r.report
+			) );
+		}
+
+		double seconds = Math.max( 1e-9, ( System.nanoTime() - startTime ) / 1e9 );
+		System.out.println( String.format(
+			"%d files (%d failed), %d bytes, %d beats, %d notes in %.2f s: %.1f files/s, %.1f MB/s, %.0f notes/s"
+			+ " (%.1fx parallel speedup)",
+			files.length, numFailed, totalBytes, totalBeats, totalNotes, seconds,
+			files.length / seconds, totalBytes / 1e6 / seconds, totalNotes / seconds,
+			busyNanoseconds / 1e9 / seconds
+		) );
+		return numFailed;
+	}
+
+}
@@ -0,0 +1,125 @@
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+// Calls a listener once per beat, on the high priority timing thread
+// that all the schedulers share (see TaskExecutors.getTimingExecutor()),
+// so listeners must return quickly.
+//
+// The time of each beat is computed as an absolute deadline
+// (the previous deadline plus the interval between beats, from System.nanoTime()),
+// rather than by sleeping for the interval after the work of a beat is done.
+// Hence the time taken by the listener, and the lateness of the thread
+// in waking up, don't accumulate into tempo drift.
+// If the listener falls behind by more than a whole beat,
+// the missed beats are dropped (instead of being fired in a burst)
+// and the schedule restarts from the current time.
+public class BeatScheduler {
+
+	public interface Listener {
+		// Called on the timing thread.
+		// ``latenessInNanoseconds'' is how long after its deadline the beat was fired.
+		void beatElapsed( long latenessInNanoseconds );
+	}
+
+	private final Listener listener;
+	private final ScheduledExecutorService executor = TaskExecutors.getTimingExecutor();
+	private ScheduledFuture< ? > future = null;
+	private boolean isRunning = false;
+	// Incremented by start() and stop(). Each tick carries the generation it was scheduled in,
+	// and only fires and schedules the next one if that is still the current generation:
+	// so a tick that was already running during a stop() and start() doesn't keep
+	// a second chain of beats going next to the one of the new start().
+	private int generation = 0;
+
+	private volatile long intervalInNanoseconds;
+	private long deadline; // in the time base of System.nanoTime()
+
+	// Statistics on the lateness of beats, since the last call to start()
+	private volatile long lastLatenessInNanoseconds = 0;
+	private volatile long maxLatenessInNanoseconds = 0;
+	private volatile long sumOfLatenessInNanoseconds = 0;
+	private volatile int numBeatsFired = 0;
+	private volatile int numBeatsDropped = 0;
+
+	private class Tick implements Runnable {
+		private final int generationOfTick;
+
+		Tick( int generationOfTick ) { this.generationOfTick = generationOfTick; }
+
+		public void run() {
+			synchronized( BeatScheduler.this ) {
+				if ( generationOfTick != generation )
+					return;
+			}
+			long now = System.nanoTime();
+			long lateness = Math.max( 0, now - deadline );
+			lastLatenessInNanoseconds = lateness;
+			if ( lateness > maxLatenessInNanoseconds )
+				maxLatenessInNanoseconds = lateness;
+			sumOfLatenessInNanoseconds += lateness;
+			numBeatsFired ++;
+
+			listener.beatElapsed( lateness );
+
+			synchronized( BeatScheduler.this ) {
+				if ( generationOfTick != generation )
+					return;
+				long interval = intervalInNanoseconds;
+				deadline += interval;
+				now = System.nanoTime();
+				if ( now - deadline > interval ) {
+					numBeatsDropped += (int)( ( now - deadline ) / interval );
+					deadline = now;
+				}
+				future = executor.schedule( this, deadline - now, TimeUnit.NANOSECONDS );
+			}
+		}
+	}
+
+	public BeatScheduler( Listener l, int intervalInMilliseconds ) {
+		listener = l;
+		setIntervalInMilliseconds( intervalInMilliseconds );
+	}
+
+	// Takes effect from the next beat on.
+	public void setIntervalInMilliseconds( int intervalInMilliseconds ) {
+		intervalInNanoseconds = Math.max( 1, intervalInMilliseconds ) * 1000000L;
+	}
+
+	public synchronized boolean isRunning() { return isRunning; }
+
+	// Fires the first beat immediately.
+	public synchronized void start() {
+		if ( isRunning )
+			return;
+		isRunning = true;
+		++ generation;
+		lastLatenessInNanoseconds = maxLatenessInNanoseconds = sumOfLatenessInNanoseconds = 0;
+		numBeatsFired = numBeatsDropped = 0;
+		deadline = System.nanoTime();
+		future = executor.schedule( new Tick( generation ), 0, TimeUnit.NANOSECONDS );
+	}
+
+	// Beats that are already being fired run to completion, but don't schedule the next one.
+	public synchronized void stop() {
+		isRunning = false;
+		++ generation;
+		if ( future != null ) {
+			future.cancel( false );
+			future = null;
+		}
+	}
+
+	public long getLastLatenessInMicroseconds() { return lastLatenessInNanoseconds / 1000; }
+	public long getMaxLatenessInMicroseconds() { return maxLatenessInNanoseconds / 1000; }
+	public long getMeanLatenessInMicroseconds() {
+		int n = numBeatsFired;
+		return n == 0 ? 0 : sumOfLatenessInNanoseconds / n / 1000;
+	}
+	public int getNumBeatsFired() { return numBeatsFired; }
+	public int getNumBeatsDropped() { return numBeatsDropped; }
+
+}
+
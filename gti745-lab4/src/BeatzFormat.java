@@ -0,0 +1,294 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+
+// Reads and writes .beatz files.
+//
+// Version 4 of the format is binary (all integers are big-endian):
+//    int       MAGIC ("BTZ2")
+//    int       VERSION
+//    int       number of beats
+//    int       number of pitches
+//    int       number of notes, in all the tracks
+//    int       number of tracks
+//    then, for each track:
+//       byte      MIDI channel
+//       byte      General MIDI program
+//       byte      flags: 1 if muted, 2 if soloed
+//       int       color, as 0xRRGGBB
+//       short     length of the name, in bytes
+//       bytes     name, in UTF-8
+//       int       number of notes of the track
+//       then, for each note, in order of beat, offset and then pitch:
+//          varint    beat, minus the beat of the previous note of the track (or minus 0 for the first note)
+//          byte      index of pitch, plus 0x80 if the note doesn't start on the beat
+//          varint    only if the note doesn't start on the beat: offset, in ticks (see NoteStore)
+//          varint    duration, in ticks (see Constant.tempsNoire, etc.)
+// where a varint stores 7 bits per byte, least significant group first,
+// with the high bit of each byte set if more bytes follow.
+// Hence a note that starts on a beat costs 3 bytes in the common case, and empty cells cost nothing.
+//
+// Version 3 is the same, except that notes always start on the beat
+// and durations are in hundredths of a beat (see convertOldDuration()).
+// Version 2 is the same as version 3, with a single track and without the number of tracks
+// or the fields that precede the notes of a track. Both are still read, into the first track for version 2.
+//
+// Files that don't start with MAGIC are read as the original text format
+// (see LegacyBeatzParser).
+//
+// A file is written to a temporary file next to it, which then replaces it,
+// so that an error (or a crash) while writing doesn't leave a truncated file behind.
+public class BeatzFormat {
+
+	public static final int MAGIC = 0x42545A32; // "BTZ2"
+	public static final int VERSION = 4;
+	private static final int HEADER_SIZE = 5 * 4; // of version 2; version 3 adds the number of tracks
+	// Size of the fields of a track that precede its notes, not counting the name.
+	private static final int TRACK_HEADER_SIZE = 3 + 4 + 2 + 4;
+	private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+	// Progress is reported once per this many notes.
+	private static final int NOTES_PER_PROGRESS_REPORT = 4096;
+
+	// Before version 4 (and in the text format), durations were in hundredths of a beat,
+	// and could be up to 0xFFFF.
+	public static final int OLD_TICKS_PER_BEAT = 100;
+	public static final int OLD_MAX_DURATION = 0xFFFF;
+
+	// Converts a duration read from an older file into ticks,
+	// clamping those that are too long for NoteStore.
+	public static int convertOldDuration( int duration ) {
+		long d = ( (long)duration * PlaybackEngine.TICKS_PER_BEAT + OLD_TICKS_PER_BEAT / 2 ) / OLD_TICKS_PER_BEAT;
+		return (int)Math.max( 1, Math.min( NoteStore.MAX_DURATION, d ) );
+	}
+
+	private static void putVarint( ByteBuffer buffer, int value ) {
+		while ( ( value & ~0x7F ) != 0 ) {
+			buffer.put( (byte)( ( value & 0x7F ) | 0x80 ) );
+			value >>>= 7;
+		}
+		buffer.put( (byte)value );
+	}
+
+	private static int getVarint( ByteBuffer buffer ) throws IOException {
+		int value = 0;
+		for ( int shift = 0; shift < 35; shift += 7 ) {
+			int b = buffer.get();
+			value |= ( b & 0x7F ) << shift;
+			if ( ( b & 0x80 ) == 0 )
+				return value;
+		}
+		throw new IOException( "Malformed varint" );
+	}
+
+	// Writes the tracks and their notes in the range [0,score.numBeats) in the binary format.
+	public static void write( Score score, File file ) throws IOException {
+		write( score, file, null );
+	}
+
+	// Same as above, reporting progress (in notes) to ``progressListener'', which may be null.
+	public static void write( Score score, File file, ProgressListener progressListener ) throws IOException {
+		// count first, so that the buffer can be sized exactly once
+		int numTracks = score.getNumTracks();
+		int [] numNotesOfTrack = new int[ numTracks ];
+		byte [][] names = new byte[ numTracks ][];
+		int numNotes = 0;
+		int size = HEADER_SIZE + 4;
+		for ( int t = 0; t < numTracks; ++t ) {
+			NoteStore.Cursor c = score.getTrack( t ).notes.cursor( 0, score.numBeats );
+			while ( c.next() )
+				numNotesOfTrack[t] ++;
+			numNotes += numNotesOfTrack[t];
+			names[t] = score.getTrack( t ).name.getBytes( UTF_8 );
+			if ( names[t].length > Short.MAX_VALUE )
+				names[t] = Arrays.copyOf( names[t], Short.MAX_VALUE );
+			// each note takes at most 5 + 1 + 2 + 3 bytes
+			size += TRACK_HEADER_SIZE + names[t].length + numNotesOfTrack[t] * 11;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate( size );
+		buffer.putInt( MAGIC );
+		buffer.putInt( VERSION );
+		buffer.putInt( score.numBeats );
+		buffer.putInt( score.numPitches );
+		buffer.putInt( numNotes );
+		buffer.putInt( numTracks );
+		int i = 0;
+		for ( int t = 0; t < numTracks; ++t ) {
+			ScoreTrack track = score.getTrack( t );
+			buffer.put( (byte)track.channel );
+			buffer.put( (byte)track.program );
+			buffer.put( (byte)( ( track.isMuted ? 1 : 0 ) | ( track.isSolo ? 2 : 0 ) ) );
+			buffer.putInt( track.getRGB() );
+			buffer.putShort( (short)names[t].length );
+			buffer.put( names[t] );
+			buffer.putInt( numNotesOfTrack[t] );
+			int previousBeat = 0;
+			NoteStore.Cursor c = track.notes.cursor( 0, score.numBeats );
+			while ( c.next() ) {
+				putVarint( buffer, c.beat() - previousBeat );
+				if ( c.offset() == 0 )
+					buffer.put( (byte)c.pitch() );
+				else {
+					buffer.put( (byte)( c.pitch() | 0x80 ) );
+					putVarint( buffer, c.offset() );
+				}
+				putVarint( buffer, c.duration() );
+				previousBeat = c.beat();
+				if ( progressListener != null && ++i % NOTES_PER_PROGRESS_REPORT == 0 )
+					progressListener.progressMade( i, numNotes );
+			}
+		}
+		buffer.flip();
+
+		File temporaryFile = File.createTempFile( file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile() );
+		boolean isWritten = false;
+		try {
+			FileOutputStream out = new FileOutputStream( temporaryFile );
+			try {
+				FileChannel channel = out.getChannel();
+				while ( buffer.hasRemaining() )
+					channel.write( buffer );
+			}
+			finally {
+				out.close();
+			}
+			try {
+				Files.move( temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE );
+			}
+			catch ( AtomicMoveNotSupportedException e ) {
+				Files.move( temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+			isWritten = true;
+		}
+		finally {
+			if ( ! isWritten )
+				temporaryFile.delete();
+		}
+		if ( progressListener != null )
+			progressListener.progressMade( numNotes, numNotes );
+	}
+
+	// Reads a file in either format into a new score.
+	public static Score read( File file ) throws IOException {
+		return read( file, new LegacyBeatzParser() );
+	}
+
+	// Same as above; if the file is in the text format,
+	// ``legacyParser'' is used to parse it, and holds statistics about it afterward.
+	public static Score read( File file, LegacyBeatzParser legacyParser ) throws IOException {
+		return read( file, legacyParser, null );
+	}
+
+	// Same as above, reporting progress (in notes, or in bytes for the text format)
+	// to ``progressListener'', which may be null.
+	public static Score read( File file, LegacyBeatzParser legacyParser, ProgressListener progressListener ) throws IOException {
+		FileInputStream in = new FileInputStream( file );
+		try {
+			// Read into the heap rather than mapped, as a mapping stays open (and the file locked,
+			// on Windows) until the buffer is garbage collected.
+			FileChannel channel = in.getChannel();
+			if ( channel.size() > Integer.MAX_VALUE )
+				throw new IOException( "File too large: " + file.getName() );
+			ByteBuffer buffer = ByteBuffer.allocate( (int)channel.size() );
+			while ( buffer.hasRemaining() && channel.read( buffer ) >= 0 ) { }
+			buffer.flip();
+			Score score = new Score();
+			if ( buffer.remaining() >= HEADER_SIZE && buffer.getInt( 0 ) == MAGIC )
+				readBinary( buffer, score, progressListener );
+			else {
+				legacyParser.setProgressListener( progressListener );
+				legacyParser.parse( buffer, score );
+			}
+			return score;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static void readBinary( ByteBuffer buffer, Score score, ProgressListener progressListener ) throws IOException {
+		try {
+			buffer.getInt(); // MAGIC
+			int version = buffer.getInt();
+			if ( version < 2 || version > VERSION )
+				throw new IOException( "Unsupported .beatz version " + version );
+			int numBeats = buffer.getInt();
+			int numPitches = buffer.getInt();
+			int numNotes = buffer.getInt();
+			int numTracks = version == 2 ? 1 : buffer.getInt();
+			if (
+				numBeats < 0 || numPitches < 0 || numPitches > PitchOccupancy.MAX_PITCHES || numNotes < 0
+				|| numTracks < 1 || numTracks > Score.MAX_TRACKS
+			)
+				throw new IOException( "Corrupt .beatz header" );
+			// Every note is checked against numPitches below, so a file with fewer pitches fits as is.
+			if ( numPitches > score.numPitches )
+				throw new IOException( "Unsupported number of pitches in .beatz file: " + numPitches );
+			if ( numBeats > 0 )
+				score.setNumBeats( numBeats );
+			int i = 0;
+			for ( int t = 0; t < numTracks; ++t ) {
+				int numNotesOfTrack = numNotes;
+				if ( version > 2 ) {
+					if ( t > 0 )
+						score.addTrack();
+					int channel = buffer.get() & 0xFF;
+					int program = buffer.get() & 0xFF;
+					int flags = buffer.get();
+					int rgb = buffer.getInt();
+					byte [] name = new byte[ buffer.getShort() & 0x7FFF ];
+					buffer.get( name );
+					numNotesOfTrack = buffer.getInt();
+					if ( channel >= ScoreTrack.NUM_CHANNELS || program > 127 || numNotesOfTrack < 0 || numNotesOfTrack > numNotes - i )
+						throw new IOException( "Corrupt .beatz track " + ( t + 1 ) );
+					score.setTrackName( t, new String( name, UTF_8 ) );
+					score.setTrackChannel( t, channel );
+					score.setTrackProgram( t, program );
+					score.setTrackMuted( t, ( flags & 1 ) != 0 );
+					score.setTrackSolo( t, ( flags & 2 ) != 0 );
+					score.getTrack( t ).setRGB( rgb );
+				}
+				int beat = 0;
+				for ( int j = 0; j < numNotesOfTrack; ++j ) {
+					beat += getVarint( buffer );
+					int pitch = buffer.get() & 0xFF;
+					int offset = 0;
+					if ( version >= 4 && pitch >= 0x80 ) {
+						pitch &= 0x7F;
+						offset = getVarint( buffer );
+					}
+					int duration = getVarint( buffer );
+					int maxDuration = version >= 4 ? NoteStore.MAX_DURATION : OLD_MAX_DURATION;
+					if (
+						beat < 0 || beat >= numBeats || offset < 0 || offset >= PlaybackEngine.TICKS_PER_BEAT
+						|| pitch >= numPitches || duration <= 0 || duration > maxDuration
+					)
+						throw new IOException( "Corrupt .beatz note at beat " + beat );
+					if ( version < 4 )
+						duration = convertOldDuration( duration );
+					score.setNote( t, beat, offset, pitch, duration );
+					++ i;
+					if ( progressListener != null && i % NOTES_PER_PROGRESS_REPORT == 0 )
+						progressListener.progressMade( i, numNotes );
+				}
+			}
+			if ( progressListener != null )
+				progressListener.progressMade( numNotes, numNotes );
+		}
+		catch ( BufferUnderflowException e ) {
+			throw new IOException( "Truncated .beatz file" );
+		}
+	}
+
+}
+
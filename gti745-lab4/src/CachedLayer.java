@@ -0,0 +1,71 @@
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+
+// An off-screen image holding content that changes much less often than
+// the window is repainted (e.g. the static grid behind the notes).
+// The image covers the whole window and is redrawn only when the camera,
+// the size of the window, or the client's ``contentKey'' changes;
+// otherwise, drawing the layer is a single image copy.
+//
+// Typical usage:
+//    GraphicsWrapper layerGW = layer.beginUpdate( gw, contentKey );
+//    if ( layerGW != null ) {
+//       ... draw into layerGW, in world space units ...
+//       layer.endUpdate();
+//    }
+//    layer.draw( gw );
+public class CachedLayer {
+
+	private BufferedImage image = null;
+	private Graphics2D imageGraphics = null;
+	private GraphicsWrapper layerGW = new GraphicsWrapper();
+	private long contentKey = 0;
+	private boolean isValid = false;
+
+	public void invalidate() { isValid = false; }
+
+	// Returns null if the cached image is still valid.
+	// Otherwise, returns a GraphicsWrapper (with the same camera as ``gw''
+	// and in world space units) into which the client must redraw the layer,
+	// and then call endUpdate().
+	public GraphicsWrapper beginUpdate( GraphicsWrapper gw, long contentKey ) {
+		if ( isValid && this.contentKey == contentKey && layerGW.hasSameViewAs( gw ) )
+			return null;
+
+		int w = Math.max( 1, gw.getWidth() );
+		int h = Math.max( 1, gw.getHeight() );
+		if ( image == null || image.getWidth() != w || image.getHeight() != h ) {
+			if ( image != null )
+				image.flush();
+			image = gw.createCompatibleImage( w, h );
+		}
+		imageGraphics = image.createGraphics();
+		imageGraphics.setComposite( AlphaComposite.Clear );
+		imageGraphics.fillRect( 0, 0, w, h );
+		imageGraphics.setComposite( AlphaComposite.SrcOver );
+
+		layerGW.copyViewFrom( gw );
+		layerGW.set( imageGraphics );
+		layerGW.setCoordinateSystemToWorldSpaceUnits();
+		this.contentKey = contentKey;
+		return layerGW;
+	}
+
+	public void endUpdate() {
+		imageGraphics.dispose();
+		imageGraphics = null;
+		isValid = true;
+	}
+
+	// Copies the layer to the window. Leaves ``gw'' in pixel coordinates.
+	public void draw( GraphicsWrapper gw ) {
+		if ( image == null )
+			return;
+		gw.setCoordinateSystemToPixels();
+		gw.drawImage( image, 0, 0 );
+	}
+
+}
+
@@ -0,0 +1,65 @@
+import java.awt.Color;
+import java.util.Arrays;
+
+
+// Interns java.awt.Color objects by their packed ARGB value,
+// so that code that sets the same few colors on every frame doesn't allocate.
+//
+// Uses open addressing with linear probing in two parallel arrays
+// (a null entry in ``colors'' marks an empty slot).
+// Once the table is 3/4 full it is emptied and starts over,
+// which bounds its size if a client animates through many colors.
+// Not thread safe: each GraphicsWrapper has its own.
+public class ColorCache {
+
+	private static final int CAPACITY = 256; // must be a power of 2
+	private static final int MAX_SIZE = CAPACITY * 3 / 4;
+
+	private final int [] keys = new int[ CAPACITY ];
+	private final Color [] colors = new Color[ CAPACITY ];
+	private int size = 0;
+
+	// Same rounding as the Color( float, float, float, float ) constructor,
+	// so that interned colors are identical to the ones it would create.
+	private static int toByte( float f ) {
+		return (int)( f * 255 + 0.5 );
+	}
+
+	private static boolean isInRange( float f ) {
+		return 0 <= f && f <= 1;
+	}
+
+	// Components must be in [0,1].
+	public Color get( float r, float g, float b, float alpha ) {
+		if ( ! ( isInRange( r ) && isInRange( g ) && isInRange( b ) && isInRange( alpha ) ) )
+			return new Color( r, g, b, alpha ); // throws the usual IllegalArgumentException
+		int argb = ( toByte( alpha ) << 24 ) | ( toByte( r ) << 16 ) | ( toByte( g ) << 8 ) | toByte( b );
+		return get( argb );
+	}
+
+	public Color get( int argb ) {
+		int i = ( argb * 0x9E3779B9 ) >>> 24 & ( CAPACITY - 1 ); // Fibonacci hashing
+		while ( colors[i] != null ) {
+			if ( keys[i] == argb )
+				return colors[i];
+			i = ( i + 1 ) & ( CAPACITY - 1 );
+		}
+		if ( size == MAX_SIZE ) {
+			clear();
+			return get( argb );
+		}
+		Color c = new Color( argb, true );
+		keys[i] = argb;
+		colors[i] = c;
+		size ++;
+		return c;
+	}
+
+	public void clear() {
+		Arrays.fill( colors, null );
+		size = 0;
+	}
+
+	public int size() { return size; }
+
+}
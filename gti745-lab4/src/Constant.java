@@ -17,11 +17,16 @@ public class Constant {
 	public static final boolean USE_SOUND = true;
 
 	public static final int midiVolume = 127;
+
+	// How far ahead of time notes are sent to the synthesizer during playback.
+	public static final int PLAYBACK_LOOKAHEAD_IN_MILLISECONDS = 200;
 	
-	public static final int tempsDoubleCroche = 25;
-	public static final int tempsCroche = 50;
-	public static final int tempsNoire = 100;
-	public static final int tempsBlanche = 200;
-	public static final int tempsRonde = 400;
+	// Durations of notes, in ticks; a beat (a quarter note) is 480 ticks, as is common
+	// in MIDI sequencers, so that notes can also start on triplets and 32nd notes (see PlaybackEngine.TICKS_PER_BEAT).
+	public static final int tempsDoubleCroche = 120;
+	public static final int tempsCroche = 240;
+	public static final int tempsNoire = 480;
+	public static final int tempsBlanche = 960;
+	public static final int tempsRonde = 1920;
 }
 
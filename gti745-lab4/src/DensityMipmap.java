@@ -0,0 +1,82 @@
+
+// Counts of notes in square blocks of cells, at several levels of detail,
+// so that a zoomed-out view of a score can be drawn one block at a time
+// instead of one note at a time.
+//
+// At level L (1 <= L <= MAX_LEVEL), each block covers 2^L beats by 2^L pitches,
+// and its count is the number of notes in those cells.
+// The counts are kept up to date incrementally, by calling add() and remove()
+// whenever a note is created or deleted, at a cost of MAX_LEVEL increments per edit.
+// Each level grows (doubling its capacity) as notes are added at later beats.
+public class DensityMipmap {
+
+	public static final int MAX_LEVEL = 12;
+
+	// counts[L][ beatBlock * numPitchBlocks(L) + pitchBlock ]
+	private int [][] counts = new int[ MAX_LEVEL + 1 ][];
+
+	private static int numPitchBlocks( int level ) {
+		return ( PitchOccupancy.MAX_PITCHES + ( 1 << level ) - 1 ) >> level;
+	}
+
+	public static int getBlockSize( int level ) {
+		return 1 << level;
+	}
+
+	private void addToCount( int beat, int pitch, int delta ) {
+		if ( beat < 0 || pitch < 0 || pitch >= PitchOccupancy.MAX_PITCHES )
+			return;
+		for ( int level = 1; level <= MAX_LEVEL; ++level ) {
+			int n = numPitchBlocks( level );
+			int index = ( beat >> level ) * n + ( pitch >> level );
+			int [] c = counts[ level ];
+			if ( c == null || index >= c.length ) {
+				if ( delta < 0 )
+					continue; // nothing was ever counted there
+				int newLength = c == null ? 64 * n : c.length;
+				while ( newLength <= index )
+					newLength *= 2;
+				int [] newCounts = new int[ newLength ];
+				if ( c != null )
+					System.arraycopy( c, 0, newCounts, 0, c.length );
+				counts[ level ] = c = newCounts;
+			}
+			c[ index ] += delta;
+		}
+	}
+
+	// Must be called once for each note that is created (not when an existing note is changed).
+	public void add( int beat, int pitch ) {
+		addToCount( beat, pitch, 1 );
+	}
+
+	// Must be called once for each note that is deleted.
+	public void remove( int beat, int pitch ) {
+		addToCount( beat, pitch, -1 );
+	}
+
+	public void clear() {
+		for ( int level = 1; level <= MAX_LEVEL; ++level )
+			counts[ level ] = null;
+	}
+
+	// Returns the number of notes in the given block.
+	public int getCount( int level, int beatBlock, int pitchBlock ) {
+		int [] c = counts[ level ];
+		int n = numPitchBlocks( level );
+		if ( c == null || beatBlock < 0 || pitchBlock < 0 || pitchBlock >= n )
+			return 0;
+		int index = beatBlock * n + pitchBlock;
+		return index < c.length ? c[ index ] : 0;
+	}
+
+	// Returns the level at which blocks are at least one pixel wide, given the zoom factor
+	// (in world space units, i.e. beats, per pixel), or 0 if cells are already that wide.
+	public static int getLevelForScale( float beatsPerPixel ) {
+		int level = 0;
+		while ( level < MAX_LEVEL && ( 1 << level ) < beatsPerPixel )
+			level ++;
+		return level;
+	}
+
+}
@@ -4,6 +4,11 @@ import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Font;
 import java.awt.FontMetrics;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Arc2D;
@@ -42,8 +47,31 @@ class GraphicsWrapper {
 	private Rectangle2D.Float rectangle2D = new Rectangle2D.Float();
 	private Ellipse2D.Float ellipse2D = new Ellipse2D.Float();
 	private Arc2D.Float arc2D = new Arc2D.Float();
+	private Path2D.Float rectanglesPath = new Path2D.Float( Path2D.WIND_NON_ZERO, 1024 );
+	private static final AffineTransform identityTransform = new AffineTransform();
 
-	public void set( Graphics g ) { this.g = g; this.g2 = (Graphics2D)g; this.originalTransform = g2.getTransform(); }
+	// The region being repainted, in pixels (null if the whole window is being repainted).
+	private Rectangle clipInPixels = null;
+
+	// Colors and strokes are reused rather than allocated on every call,
+	// and aren't set again on g2 if they are already current.
+	private ColorCache colorCache = new ColorCache();
+	private Color currentColor = null;
+	private static final int MAX_STROKES = 8;
+	private float [] strokeWidths = new float[ MAX_STROKES ];
+	private BasicStroke [] strokes = new BasicStroke[ MAX_STROKES ];
+	private int numStrokes = 0;
+	private BasicStroke currentStroke = null;
+
+	public void set( Graphics g ) {
+		this.g = g;
+		this.g2 = (Graphics2D)g;
+		this.originalTransform = g2.getTransform();
+		this.clipInPixels = g.getClipBounds();
+		// we don't know what the new Graphics is set to
+		currentColor = null;
+		currentStroke = null;
+	}
 
 
 
@@ -82,6 +110,42 @@ class GraphicsWrapper {
 
 	public float getScaleFactorInWorldSpaceUnitsPerPixel() { return scaleFactorInWorldSpaceUnitsPerPixel; }
 
+	// Makes this object use the same window size and camera as the other one,
+	// e.g. to render into an off-screen image that will later be copied to the window.
+	public void copyViewFrom( GraphicsWrapper other ) {
+		windowWidthInPixels = other.windowWidthInPixels;
+		windowHeightInPixels = other.windowHeightInPixels;
+		hasFrameOrResizeBeenCalledBefore = other.hasFrameOrResizeBeenCalledBefore;
+		offsetXInPixels = other.offsetXInPixels;
+		offsetYInPixels = other.offsetYInPixels;
+		scaleFactorInWorldSpaceUnitsPerPixel = other.scaleFactorInWorldSpaceUnitsPerPixel;
+	}
+
+	public boolean hasSameViewAs( GraphicsWrapper other ) {
+		return windowWidthInPixels == other.windowWidthInPixels
+			&& windowHeightInPixels == other.windowHeightInPixels
+			&& offsetXInPixels == other.offsetXInPixels
+			&& offsetYInPixels == other.offsetYInPixels
+			&& scaleFactorInWorldSpaceUnitsPerPixel == other.scaleFactorInWorldSpaceUnitsPerPixel;
+	}
+
+	// Returns the part of world space that is currently visible in the window
+	// (and inside the region being repainted, if only part of the window is being repainted).
+	// Callers can use this to skip drawing anything that falls outside it.
+	public AlignedRectangle2D getVisibleRectangleInWorldSpaceUnits() {
+		int x0 = 0, y0 = 0, x1 = windowWidthInPixels, y1 = windowHeightInPixels;
+		if ( clipInPixels != null ) {
+			x0 = Math.max( x0, clipInPixels.x );
+			y0 = Math.max( y0, clipInPixels.y );
+			x1 = Math.min( x1, clipInPixels.x + clipInPixels.width );
+			y1 = Math.min( y1, clipInPixels.y + clipInPixels.height );
+		}
+		return new AlignedRectangle2D(
+			new Point2D( convertPixelsToWorldSpaceUnitsX( x0 ), convertPixelsToWorldSpaceUnitsY( y0 ) ),
+			new Point2D( convertPixelsToWorldSpaceUnitsX( x1 ), convertPixelsToWorldSpaceUnitsY( y1 ) )
+		);
+	}
+
 	public void pan( float dx, float dy ) {
 		offsetXInPixels += dx;
 		offsetYInPixels += dy;
@@ -215,11 +279,15 @@ class GraphicsWrapper {
 	}
 
 	public void setColor( float r, float g, float b ) {
-		g2.setColor( new Color( r, g, b ) );
+		setColor( r, g, b, 1 );
 	}
 
 	public void setColor( float r, float g, float b, float alpha ) {
-		g2.setColor( new Color( r, g, b, alpha ) );
+		Color c = colorCache.get( r, g, b, alpha );
+		if ( c != currentColor ) {
+			g2.setColor( c );
+			currentColor = c;
+		}
 	}
 
 	public void setColor( Color c ) {
@@ -231,7 +299,23 @@ class GraphicsWrapper {
 	}
 
 	public void setLineWidth( float width ) {
-		g2.setStroke( new BasicStroke( width ) );
+		BasicStroke stroke = null;
+		for ( int i = 0; i < numStrokes; ++i )
+			if ( strokeWidths[i] == width ) {
+				stroke = strokes[i];
+				break;
+			}
+		if ( stroke == null ) {
+			stroke = new BasicStroke( width );
+			if ( numStrokes == MAX_STROKES )
+				numStrokes = 0; // start over
+			strokeWidths[ numStrokes ] = width;
+			strokes[ numStrokes++ ] = stroke;
+		}
+		if ( stroke != currentStroke ) {
+			g2.setStroke( stroke );
+			currentStroke = stroke;
+		}
 	}
 
 	public void drawLine( float x1, float y1, float x2, float y2 ) {
@@ -285,6 +369,69 @@ class GraphicsWrapper {
 		g2.fill( rectangle2D );
 	}
 
+	// Returns the first pixel whose center is on or after the given edge (in device space).
+	private static int toPixel( double edge, boolean isPure ) {
+		return isPure ? (int)Math.ceil( edge - 0.5 ) : (int)Math.floor( edge + 0.25 );
+	}
+
+	// Fills ``count'' rectangles, given as ( x, y, width, height ) in consecutive elements of ``xywh'',
+	// in the current color.
+	//
+	// When the current transform only scales and translates, and antialiasing is off (the default),
+	// the rectangles are converted to whole device pixels here, with the same rule Java2D uses
+	// for filling shapes, and filled with the integer fillRect(), which skips Java2D's shape pipeline
+	// (and skips rectangles too small to cover any pixel) entirely.
+	// Otherwise, they are gathered into a single path and filled with one call,
+	// in which case a translucent color is applied only once where rectangles overlap.
+	public void fillRects( float [] xywh, int count ) {
+		if ( count <= 0 )
+			return;
+		AffineTransform t = g2.getTransform();
+		int nonAxisAligned = ~( AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_UNIFORM_SCALE | AffineTransform.TYPE_GENERAL_SCALE );
+		if ( ( t.getType() & nonAxisAligned ) == 0
+			&& g2.getRenderingHint( RenderingHints.KEY_ANTIALIASING ) != RenderingHints.VALUE_ANTIALIAS_ON
+		) {
+			double sx = t.getScaleX(), sy = t.getScaleY(), tx = t.getTranslateX(), ty = t.getTranslateY();
+			// With STROKE_PURE, a pixel is filled if its center is inside the rectangle;
+			// by default, Java2D first moves the edges to the nearest pixel center minus a quarter pixel.
+			boolean isPure = g2.getRenderingHint( RenderingHints.KEY_STROKE_CONTROL ) == RenderingHints.VALUE_STROKE_PURE;
+			g2.setTransform( identityTransform );
+			for ( int i = 0; i < 4*count; i += 4 ) {
+				double x0 = xywh[i] * sx + tx, x1 = ( xywh[i] + xywh[i+2] ) * sx + tx;
+				double y0 = xywh[i+1] * sy + ty, y1 = ( xywh[i+1] + xywh[i+3] ) * sy + ty;
+				int px0 = toPixel( Math.min( x0, x1 ), isPure ), px1 = toPixel( Math.max( x0, x1 ), isPure );
+				int py0 = toPixel( Math.min( y0, y1 ), isPure ), py1 = toPixel( Math.max( y0, y1 ), isPure );
+				if ( px1 > px0 && py1 > py0 )
+					g2.fillRect( px0, py0, px1 - px0, py1 - py0 );
+			}
+			g2.setTransform( t );
+			return;
+		}
+		rectanglesPath.reset();
+		for ( int i = 0; i < 4*count; i += 4 ) {
+			float x = xywh[i], y = xywh[i+1], w = xywh[i+2], h = xywh[i+3];
+			rectanglesPath.moveTo( x, y );
+			rectanglesPath.lineTo( x + w, y );
+			rectanglesPath.lineTo( x + w, y + h );
+			rectanglesPath.lineTo( x, y + h );
+			rectanglesPath.closePath();
+		}
+		g2.fill( rectanglesPath );
+	}
+
+	// Returns an image with a transparent background,
+	// in a format that is fast to copy to the current graphics device.
+	public BufferedImage createCompatibleImage( int w, int h ) {
+		if ( g2 != null && g2.getDeviceConfiguration() != null )
+			return g2.getDeviceConfiguration().createCompatibleImage( w, h, Transparency.TRANSLUCENT );
+		return new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB );
+	}
+
+	// Draws the image with its upper left corner at the given location.
+	public void drawImage( Image image, int x, int y ) {
+		g2.drawImage( image, x, y, null );
+	}
+
 	public void drawCircle( float x, float y, float radius, boolean isFilled ) {
 		ellipse2D.setFrame( x, y, 2*radius, 2*radius );
 		if ( isFilled ) g2.fill( ellipse2D );
@@ -0,0 +1,95 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// A histogram of non-negative values (typically durations in nanoseconds)
+// that can be recorded into from any number of threads without locking.
+//
+// As in HdrHistogram, buckets are spaced logarithmically, with each power of two
+// split into SUB_BUCKETS linear sub-buckets, so that any value from 0 to Long.MAX_VALUE
+// is counted with a relative error of at most 1/SUB_BUCKETS, in a fixed, small array.
+// Recording a value costs a few arithmetic operations and two or three atomic updates.
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int NUM_BUCKETS = 64 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray( NUM_BUCKETS );
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	private static int indexOf( long value ) {
+		if ( value < SUB_BUCKETS )
+			return (int)value;
+		int exponent = 63 - Long.numberOfLeadingZeros( value );
+		int subBucket = (int)( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+		return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+	}
+
+	// Returns the smallest value counted in the given bucket.
+	private static long lowestValueOf( int index ) {
+		if ( index < SUB_BUCKETS )
+			return index;
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		return ( SUB_BUCKETS + subBucket ) << ( exponent - SUB_BUCKET_BITS );
+	}
+
+	// Negative values are counted as 0.
+	public void record( long value ) {
+		if ( value < 0 )
+			value = 0;
+		counts.incrementAndGet( indexOf( value ) );
+		count.incrementAndGet();
+		sum.addAndGet( value );
+		long m = max.get();
+		while ( value > m && ! max.compareAndSet( m, value ) )
+			m = max.get();
+	}
+
+	// Values recorded concurrently with a reset may or may not be kept.
+	public void reset() {
+		for ( int i = 0; i < NUM_BUCKETS; ++i )
+			counts.set( i, 0 );
+		count.set( 0 );
+		sum.set( 0 );
+		max.set( 0 );
+	}
+
+	public long getCount() { return count.get(); }
+	public long getMax() { return max.get(); }
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / (double)n;
+	}
+
+	// Returns (an upper bound on) the value below which the given percentage of the values fall.
+	public long getValueAtPercentile( double percentile ) {
+		long n = count.get();
+		if ( n == 0 )
+			return 0;
+		long target = Math.max( 1, (long)Math.ceil( n * percentile / 100 ) );
+		long cumulative = 0;
+		for ( int i = 0; i < NUM_BUCKETS; ++i ) {
+			cumulative += counts.get( i );
+			if ( cumulative >= target ) {
+				long upper = i + 1 < NUM_BUCKETS ? lowestValueOf( i + 1 ) - 1 : Long.MAX_VALUE;
+				return Math.min( upper, getMax() );
+			}
+		}
+		return getMax();
+	}
+
+	// e.g. getSummary( 1e6, "ms" ) for values in nanoseconds
+	public String getSummary( double divisor, String unit ) {
+		return String.format(
+			"n=%d mean=%.2f p50=%.2f p99=%.2f max=%.2f %s",
+			getCount(), getMean() / divisor,
+			getValueAtPercentile( 50 ) / divisor, getValueAtPercentile( 99 ) / divisor,
+			getMax() / divisor, unit
+		);
+	}
+
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+// Parses the original text .beatz format:
+// one line per beat, with the duration of each pitch followed by ';' (0 for no note),
+// in hundredths of a beat (see BeatzFormat.convertOldDuration()).
+//
+// The bytes are scanned directly, with a small state machine,
+// so no String is created per line or per cell,
+// and input can be fed in chunks (e.g. from an InputStream).
+// The score is grown to the number of lines found in the file;
+// cells beyond the score's number of pitches are counted and ignored.
+//
+// After parsing, the getters report the size of the input and the throughput.
+public class LegacyBeatzParser {
+
+	// Bytes are scanned in slices of this size, between reports of progress.
+	private static final int SLICE_SIZE = 64 * 1024;
+
+	private ProgressListener progressListener = null;
+	private long totalBytes = -1;
+
+	// state of the scanner
+	private Score score;
+	private int row;
+	private int column;
+	private int value;
+	private boolean hasDigits;
+	private boolean isRowEmpty;
+
+	// statistics
+	private long numBytes;
+	private long numCells;
+	private long numNotes;
+	private long numIgnoredNotes;
+	private int maxColumns;
+	private long elapsedNanoseconds;
+
+	public long getNumBytes() { return numBytes; }
+	public long getNumCells() { return numCells; }
+	public long getNumNotes() { return numNotes; }
+	public long getNumIgnoredNotes() { return numIgnoredNotes; }
+	public int getNumRows() { return row; }
+	public int getMaxColumns() { return maxColumns; }
+	public long getElapsedNanoseconds() { return elapsedNanoseconds; }
+
+	public double getMegabytesPerSecond() {
+		return elapsedNanoseconds == 0 ? 0 : numBytes * 1000.0 / elapsedNanoseconds;
+	}
+	public double getCellsPerSecond() {
+		return elapsedNanoseconds == 0 ? 0 : numCells * 1e9 / elapsedNanoseconds;
+	}
+
+	public String getSummary() {
+		return String.format(
+			"%d bytes, %d beats x %d pitches, %d notes (%d ignored) in %.2f ms: %.1f MB/s, %.0f cells/s",
+			numBytes, row, maxColumns, numNotes, numIgnoredNotes,
+			elapsedNanoseconds / 1e6, getMegabytesPerSecond(), getCellsPerSecond()
+		);
+	}
+
+	// May be null.
+	public void setProgressListener( ProgressListener l ) {
+		progressListener = l;
+	}
+
+	private void begin( Score score ) {
+		this.score = score;
+		row = column = value = 0;
+		hasDigits = false;
+		isRowEmpty = true;
+		numBytes = numCells = numNotes = numIgnoredNotes = 0;
+		maxColumns = 0;
+	}
+
+	private void endCell() throws IOException {
+		if ( ! hasDigits )
+			throw new IOException( "Empty cell at beat " + row + ", pitch " + column );
+		if ( value != 0 ) {
+			if ( column < score.numPitches ) {
+				score.setNote( row, column, BeatzFormat.convertOldDuration( value ) );
+				numNotes ++;
+			}
+			else numIgnoredNotes ++;
+		}
+		numCells ++;
+		column ++;
+		value = 0;
+		hasDigits = false;
+		isRowEmpty = false;
+	}
+
+	private void endRow() throws IOException {
+		if ( hasDigits ) // the last cell of a row may lack its ';'
+			endCell();
+		if ( isRowEmpty )
+			return; // blank lines are skipped
+		if ( column > maxColumns )
+			maxColumns = column;
+		row ++;
+		column = 0;
+		isRowEmpty = true;
+	}
+
+	private void scan( ByteBuffer buffer ) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			int n = Math.min( buffer.remaining(), SLICE_SIZE );
+			for ( int i = 0; i < n; ++i ) {
+				int b = buffer.get();
+				if ( '0' <= b && b <= '9' ) {
+					value = value * 10 + ( b - '0' );
+					if ( value > BeatzFormat.OLD_MAX_DURATION )
+						throw new IOException( "Duration too long at beat " + row + ", pitch " + column );
+					hasDigits = true;
+				}
+				else if ( b == ';' ) endCell();
+				else if ( b == '\n' ) endRow();
+				else if ( b == '\r' || b == ' ' || b == '\t' ) { }
+				else throw new IOException( "Unexpected character '" + (char)( b & 0xFF ) + "' at beat " + row );
+			}
+			numBytes += n;
+			if ( progressListener != null )
+				progressListener.progressMade( numBytes, totalBytes );
+		}
+	}
+
+	private void end() throws IOException {
+		endRow();
+		if ( row > 0 )
+			score.setNumBeats( row );
+	}
+
+	// Parses the remaining bytes of the buffer into the score.
+	public void parse( ByteBuffer buffer, Score score ) throws IOException {
+		long startTime = System.nanoTime();
+		begin( score );
+		totalBytes = buffer.remaining();
+		scan( buffer );
+		end();
+		elapsedNanoseconds = System.nanoTime() - startTime;
+	}
+
+	// Parses the stream into the score, reading it in fixed-size chunks.
+	public void parse( InputStream in, Score score ) throws IOException {
+		long startTime = System.nanoTime();
+		begin( score );
+		totalBytes = -1;
+		byte [] chunk = new byte[ SLICE_SIZE ];
+		ByteBuffer buffer = ByteBuffer.wrap( chunk );
+		int n;
+		while ( ( n = in.read( chunk ) ) != -1 ) {
+			buffer.clear();
+			buffer.limit( n );
+			scan( buffer );
+		}
+		end();
+		elapsedNanoseconds = System.nanoTime() - startTime;
+	}
+
+}
+
@@ -0,0 +1,69 @@
+
+// A binary min-heap of primitive longs.
+// Clients pack whatever they need to order (e.g. a time in the high bits)
+// and identify (e.g. a pitch in the low bits) into each value.
+public class LongMinHeap {
+
+	private long [] heap;
+	private int size = 0;
+
+	public LongMinHeap() {
+		this( 16 );
+	}
+
+	public LongMinHeap( int initialCapacity ) {
+		heap = new long[ Math.max( 1, initialCapacity ) ];
+	}
+
+	public int size() { return size; }
+	public boolean isEmpty() { return size == 0; }
+	public void clear() { size = 0; }
+
+	public void push( long value ) {
+		if ( size == heap.length ) {
+			long [] newHeap = new long[ heap.length * 2 ];
+			System.arraycopy( heap, 0, newHeap, 0, size );
+			heap = newHeap;
+		}
+		// sift up
+		int i = size++;
+		while ( i > 0 ) {
+			int parent = ( i - 1 ) >>> 1;
+			if ( heap[parent] <= value )
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = value;
+	}
+
+	// The heap must not be empty.
+	public long peek() {
+		assert size > 0;
+		return heap[0];
+	}
+
+	// The heap must not be empty.
+	public long pop() {
+		assert size > 0;
+		long result = heap[0];
+		long value = heap[ --size ];
+		// sift down
+		int i = 0;
+		while ( true ) {
+			int child = 2 * i + 1;
+			if ( child >= size )
+				break;
+			if ( child + 1 < size && heap[child + 1] < heap[child] )
+				child ++;
+			if ( value <= heap[child] )
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = value;
+		return result;
+	}
+
+}
+
@@ -0,0 +1,264 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+
+// Converts scores to and from Standard MIDI Files (.mid).
+//
+// On export, one MIDI quarter note is one beat of the score,
+// with PlaybackEngine.TICKS_PER_BEAT ticks per quarter note,
+// so the offsets and durations of notes (see NoteStore and Constant.tempsNoire, etc.) are written unchanged.
+// Each track of the score is played on its own channel, with its own program.
+// Note-ons are generated straight from the NoteStores, in order
+// (merging the tracks with a heap when they share a MIDI track, as in PlaybackEngine),
+// and note-offs come out of a priority queue of pending note-offs,
+// so no intermediate object is created per cell.
+//
+// On import, the notes of each MIDI channel go to a track of their own,
+// and the start and duration of each note are rounded to the nearest tick of the score.
+public class MidiFileConverter {
+
+	public static final int META_TEMPO = 0x51;
+	public static final int META_TRACK_NAME = 0x03;
+	public static final int META_END_OF_TRACK = 0x2F;
+
+	private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+	private static MetaMessage createTempoMessage( long microsecondsPerBeat ) throws InvalidMidiDataException {
+		int t = (int)Math.max( 1, Math.min( 0xFFFFFF, microsecondsPerBeat ) );
+		byte [] data = { (byte)( t >> 16 ), (byte)( t >> 8 ), (byte)t };
+		MetaMessage message = new MetaMessage();
+		message.setMessage( META_TEMPO, data, data.length );
+		return message;
+	}
+
+	private static void addShortMessage( Track track, int command, int channel, int data1, int data2, long tick )
+		throws InvalidMidiDataException
+	{
+		ShortMessage message = new ShortMessage();
+		message.setMessage( command, channel, data1, data2 );
+		track.add( new MidiEvent( message, tick ) );
+	}
+
+	// Adds to ``midiTrack'' the notes of the given tracks in the range [0,numBeats), in order of time,
+	// each on the channel of its track, preceded by the program of each track.
+	private static void addTracks( Track midiTrack, ScoreTrack [] tracks, int numBeats ) throws InvalidMidiDataException {
+		final int ticksPerBeat = PlaybackEngine.TICKS_PER_BEAT;
+		for ( ScoreTrack t : tracks )
+			addShortMessage( midiTrack, ShortMessage.PROGRAM_CHANGE, t.channel, t.program, 0, 0 );
+
+		// The next note-on of each track that has one left, packed as ( tick << 4 ) | index of the track.
+		NoteStore.Cursor [] cursors = new NoteStore.Cursor[ tracks.length ];
+		LongMinHeap heads = new LongMinHeap();
+		for ( int i = 0; i < tracks.length; ++i ) {
+			cursors[i] = tracks[i].notes.cursor( 0, numBeats );
+			if ( cursors[i].next() )
+				heads.push( ( ( (long)cursors[i].beat() * ticksPerBeat + cursors[i].offset() ) << 4 ) | i );
+		}
+		// Pending note-offs, packed as ( tick << 12 ) | key, where key = channel * 128 + MIDI note number.
+		LongMinHeap pendingNoteOffs = new LongMinHeap();
+		// Tick of the note-off that currently ends each ( channel, MIDI note number ), by key, or -1 if it isn't sounding.
+		// Entries of the queue that don't match belong to notes that were cut short, and are dropped.
+		long [] noteOffTick = new long[ ScoreTrack.NUM_CHANNELS * 128 ];
+		Arrays.fill( noteOffTick, -1 );
+
+		while ( true ) {
+			long tick = heads.isEmpty() ? Long.MAX_VALUE : heads.peek() >>> 4;
+
+			// note-offs go first, so that a note ending where another starts doesn't cut it
+			while ( ! pendingNoteOffs.isEmpty() && ( pendingNoteOffs.peek() >>> 12 ) <= tick ) {
+				long off = pendingNoteOffs.pop();
+				int key = (int)off & 0xFFF;
+				long offTick = off >>> 12;
+				if ( noteOffTick[ key ] != offTick )
+					continue;
+				addShortMessage( midiTrack, ShortMessage.NOTE_OFF, key / 128, key % 128, 0, offTick );
+				noteOffTick[ key ] = -1;
+			}
+			if ( heads.isEmpty() )
+				break;
+
+			int i = (int)heads.pop() & 0xF;
+			NoteStore.Cursor c = cursors[i];
+			int channel = tracks[i].channel;
+			int n = c.pitch() + Score.midiNoteNumberOfLowestPitch;
+			int duration = c.duration();
+			if ( c.next() )
+				heads.push( ( ( (long)c.beat() * ticksPerBeat + c.offset() ) << 4 ) | i );
+			if ( n > 127 )
+				continue;
+			int key = channel * 128 + n;
+			if ( noteOffTick[ key ] > tick )
+				// cut the previous note on this pitch short, so that this one is heard
+				addShortMessage( midiTrack, ShortMessage.NOTE_OFF, channel, n, 0, tick );
+			addShortMessage( midiTrack, ShortMessage.NOTE_ON, channel, n, Constant.midiVolume, tick );
+			noteOffTick[ key ] = tick + Math.max( 1, duration );
+			pendingNoteOffs.push( ( noteOffTick[ key ] << 12 ) | key );
+		}
+	}
+
+	// Converts the tracks and their notes in the range [0,score.numBeats) into a sequence.
+	// A type 0 file gets a single MIDI track; a type 1 file gets a tempo track
+	// followed by a MIDI track per track of the score, named after it.
+	public static Sequence toSequence( Score score, long microsecondsPerBeat, int fileType )
+		throws InvalidMidiDataException
+	{
+		final int ticksPerBeat = PlaybackEngine.TICKS_PER_BEAT;
+		Sequence sequence = new Sequence( Sequence.PPQ, ticksPerBeat );
+		Track tempoTrack = sequence.createTrack();
+		tempoTrack.add( new MidiEvent( createTempoMessage( microsecondsPerBeat ), 0 ) );
+
+		ScoreTrack [] tracks = new ScoreTrack[ score.getNumTracks() ];
+		for ( int i = 0; i < tracks.length; ++i )
+			tracks[i] = score.getTrack( i );
+		if ( fileType == 0 )
+			addTracks( tempoTrack, tracks, score.numBeats );
+		else for ( ScoreTrack t : tracks ) {
+			Track track = sequence.createTrack();
+			byte [] name = t.name.getBytes( UTF_8 );
+			MetaMessage nameMessage = new MetaMessage();
+			nameMessage.setMessage( META_TRACK_NAME, name, name.length );
+			track.add( new MidiEvent( nameMessage, 0 ) );
+			addTracks( track, new ScoreTrack[] { t }, score.numBeats );
+		}
+
+		// Make the sequence as long as the score, so that it loops the same way.
+		long endTick = (long)Math.max( 0, score.numBeats ) * ticksPerBeat;
+		MetaMessage end = new MetaMessage();
+		end.setMessage( META_END_OF_TRACK, new byte[0], 0 );
+		for ( Track t : sequence.getTracks() )
+			// Track.add() moves the existing end-of-track event, if this one is later
+			t.add( new MidiEvent( end, Math.max( endTick, t.ticks() ) ) );
+		return sequence;
+	}
+
+	// fileType is 0 or 1
+	public static void write( Score score, long microsecondsPerBeat, int fileType, File file ) throws IOException {
+		try {
+			MidiSystem.write( toSequence( score, microsecondsPerBeat, fileType ), fileType, file );
+		}
+		catch ( InvalidMidiDataException e ) {
+			throw new IOException( e );
+		}
+	}
+
+	// Converts ticks of the sequence, with ``resolution'' ticks per beat, into ticks of the score.
+	private static long convertTicks( long ticks, long resolution ) {
+		return ( ticks * PlaybackEngine.TICKS_PER_BEAT + resolution / 2 ) / resolution;
+	}
+
+	// Reads the notes of all tracks and channels of the sequence into ``score'',
+	// which must have a single track and no notes, and whose length is set to that of the sequence.
+	// The notes of each MIDI channel go to a track of their own (the first one to the existing track),
+	// played on that channel, with the first program found for it,
+	// and named after the MIDI track in which its first note is found, if that has a name.
+	// Returns the first tempo found, in microseconds per beat, or -1 if there is none.
+	public static long fromSequence( Sequence sequence, Score score ) throws IOException {
+		if ( sequence.getDivisionType() != Sequence.PPQ )
+			throw new IOException( "SMPTE timing is not supported" );
+		final long resolution = sequence.getResolution();
+		final int ticksPerBeat = PlaybackEngine.TICKS_PER_BEAT;
+		long microsecondsPerBeat = -1;
+		// The length of the score is taken from the last note-on, or from the end of a track
+		// if that comes after all of its note-offs (i.e. if the track ends with a silence).
+		// Note-offs themselves don't count, since notes may ring past the end of the loop.
+		long lastTick = 0;
+
+		// Track of the score that receives the notes of each channel, or -1 if none does yet.
+		int [] trackOfChannel = new int[ ScoreTrack.NUM_CHANNELS ];
+		Arrays.fill( trackOfChannel, -1 );
+		int numTracks = 0;
+		// First program found for each channel, or -1.
+		int [] programOfChannel = new int[ ScoreTrack.NUM_CHANNELS ];
+		Arrays.fill( programOfChannel, -1 );
+
+		// Tick at which the note sounding on each ( channel, MIDI note number ) started, or -1.
+		long [] noteOnTick = new long[ ScoreTrack.NUM_CHANNELS * 128 ];
+		for ( Track track : sequence.getTracks() ) {
+			Arrays.fill( noteOnTick, -1 );
+			long lastNoteOffTick = 0;
+			String trackName = null;
+			for ( int i = 0; i < track.size(); ++i ) {
+				MidiEvent event = track.get( i );
+				MidiMessage message = event.getMessage();
+				long tick = event.getTick();
+				if ( message instanceof MetaMessage ) {
+					MetaMessage meta = (MetaMessage)message;
+					byte [] data = meta.getData();
+					if ( meta.getType() == META_TEMPO && data.length == 3 && microsecondsPerBeat < 0 )
+						microsecondsPerBeat = ( ( data[0] & 0xFF ) << 16 ) | ( ( data[1] & 0xFF ) << 8 ) | ( data[2] & 0xFF );
+					else if ( meta.getType() == META_TRACK_NAME && trackName == null )
+						trackName = new String( data, UTF_8 ).trim();
+					continue;
+				}
+				if ( ! ( message instanceof ShortMessage ) )
+					continue;
+				ShortMessage sm = (ShortMessage)message;
+				int command = sm.getCommand();
+				if ( command == ShortMessage.PROGRAM_CHANGE && programOfChannel[ sm.getChannel() ] < 0 )
+					programOfChannel[ sm.getChannel() ] = sm.getData1();
+				boolean isNoteOn = command == ShortMessage.NOTE_ON && sm.getData2() > 0;
+				boolean isNoteOff = command == ShortMessage.NOTE_OFF || ( command == ShortMessage.NOTE_ON && sm.getData2() == 0 );
+				if ( ! isNoteOn && ! isNoteOff )
+					continue;
+				int key = sm.getChannel() * 128 + sm.getData1();
+				// a note-on on a sounding note also ends it
+				long start = noteOnTick[ key ];
+				if ( start >= 0 ) {
+					long startTick = convertTicks( start, resolution );
+					int beat = (int)( startTick / ticksPerBeat );
+					int offset = (int)( startTick % ticksPerBeat );
+					long duration = Math.max( 1, Math.min( NoteStore.MAX_DURATION, convertTicks( tick, resolution ) - startTick ) );
+					int indexOfPitch = sm.getData1() - Score.midiNoteNumberOfLowestPitch;
+					if ( 0 <= indexOfPitch && indexOfPitch < score.numPitches ) {
+						int channel = sm.getChannel();
+						if ( trackOfChannel[ channel ] < 0 ) {
+							int t = numTracks == 0 ? 0 : score.addTrack();
+							numTracks ++;
+							trackOfChannel[ channel ] = t;
+							score.setTrackChannel( t, channel );
+							if ( trackName != null && trackName.length() > 0 )
+								score.setTrackName( t, trackName );
+						}
+						score.setNote( trackOfChannel[ channel ], beat, offset, indexOfPitch, (int)duration );
+						lastTick = Math.max( lastTick, (long)( beat + 1 ) * resolution );
+					}
+					noteOnTick[ key ] = -1;
+					lastNoteOffTick = Math.max( lastNoteOffTick, tick );
+				}
+				if ( isNoteOn )
+					noteOnTick[ key ] = tick;
+			}
+			if ( track.ticks() > lastNoteOffTick )
+				lastTick = Math.max( lastTick, track.ticks() );
+		}
+		for ( int channel = 0; channel < ScoreTrack.NUM_CHANNELS; ++channel )
+			if ( trackOfChannel[ channel ] >= 0 && programOfChannel[ channel ] >= 0 )
+				score.setTrackProgram( trackOfChannel[ channel ], programOfChannel[ channel ] );
+		int numBeats = (int)( ( lastTick + resolution - 1 ) / resolution );
+		if ( numBeats > 0 )
+			score.setNumBeats( numBeats );
+		return microsecondsPerBeat;
+	}
+
+	// Same as above, but reads from a file.
+	public static long read( File file, Score score ) throws IOException {
+		try {
+			return fromSequence( MidiSystem.getSequence( file ), score );
+		}
+		catch ( InvalidMidiDataException e ) {
+			throw new IOException( e );
+		}
+	}
+
+}
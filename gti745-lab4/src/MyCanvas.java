@@ -0,0 +1,837 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.awt.Graphics;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+
+import javax.swing.JFileChooser;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.BorderFactory;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.sound.midi.MidiChannel;
+
+
+public class MyCanvas extends JPanel implements KeyListener, MouseListener, MouseMotionListener, BeatScheduler.Listener, ScorePersistence.Listener {
+
+	SimplePianoRoll simplePianoRoll;
+	GraphicsWrapper gw = new GraphicsWrapper();
+
+	// Only modified by the event-dispatching thread, which publishes each batch of edits;
+	// the beat thread only reads the published snapshots (see Score.publish()).
+	// Replaced as a whole (e.g. by a load), so the beat thread sees either the old score or the new one.
+	volatile Score score = new Score();
+	ScorePersistence persistence = new ScorePersistence( this );
+
+	volatile int currentBeat = 0; // written by the beat thread, read by the EDT
+	public int sleepIntervalInMilliseconds = 150;
+	BeatScheduler beatScheduler = new BeatScheduler( this, sleepIntervalInMilliseconds );
+	PlaybackEngine playbackEngine;
+	// Channel on which the note being previewed was started (see playNote()).
+	private int previewChannel = 0;
+	public static final int RADIAL_MENU_PLAY = 0;
+	public static final int RADIAL_MENU_STOP = 1;
+	public static final int RADIAL_MENU_DRAW = 2;
+	public static final int RADIAL_MENU_ERASE = 3;
+
+	public static final int CONTROL_MENU_ZOOM = 0;
+	public static final int CONTROL_MENU_PAN = 1;
+	public static final int CONTROL_MENU_TEMPO = 2;
+	public static final int CONTROL_MENU_TOTAL_DURATION = 3;
+	public static final int CONTROL_MENU_TRANSPOSE = 4;
+	
+	public static final int BEAT_MENU_BLANCHE = 0;
+	public static final int BEAT_MENU_RONDE = 1;
+	public static final int BEAT_MENU_CROCHE = 2;
+	public static final int BEAT_MENU_DOUBLE_CROCHE = 3;
+	
+	
+	public static final int FLOW_MENU_ZOOM = 1;
+	public static final int FLOW_MENU_ZOOM_ITEMS = 9;
+	
+	public static final int FLOW_MENU_TEMPO = 2;
+	public static final int FLOW_MENU_TEMPO_ITEMS = 10;
+	
+	public static final int FLOW_MENU_DRAW = 3;
+	public static final int FLOW_MENU_DRAW_ITEMS = 11;
+	
+	public static final int FLOW_MENU_TRANSPOSE = 4;
+	public static final int FLOW_MENU_TRANSPOSE_ITEMS = 12;
+	
+	public static final int FLOW_MENU_MUSIC = 5;
+	public static final int FLOW_MENU_MUSIC_ITEMS = 13;
+	
+	public static final int FLOW_MENU_TOTAL_DURATION = 6;
+	public static final int FLOW_MENU_TOTAL_DURATION_ITEMS = 14;
+	
+	public static final int FLOW_MENU_PAN = 7;
+	public static final int FLOW_MENU_PAN_ITEMS = 15;
+	
+
+	RadialMenuWidget radialMenu = new RadialMenuWidget();
+	ControlMenuWidget controlMenu = new ControlMenuWidget();
+	RadialMenuWidget beatMenu = new RadialMenuWidget();
+	FlowMenuWidget flowMenu = new FlowMenuWidget();
+
+	int mouse_x, mouse_y, old_mouse_x, old_mouse_y;
+
+	boolean isControlKeyDown = false;
+
+	int beatOfMouseCursor = -1; // -1 for none
+	int midiNoteNumberOfMouseCurser = -1; // -1 for none
+
+	public MyCanvas( SimplePianoRoll sp ) {
+		simplePianoRoll = sp;
+		playbackEngine = new PlaybackEngine( Constant.USE_SOUND ? sp.synthesizer : null );
+		setBorder( BorderFactory.createLineBorder( Color.black ) );
+		setBackground( Color.white );
+		addKeyListener( this );
+		addMouseListener( this );
+		addMouseMotionListener( this );
+
+		radialMenu.setItemLabelAndID( RadialMenuWidget.CENTRAL_ITEM, "",            RADIAL_MENU_STOP );
+		radialMenu.setItemLabelAndID( 1,                             "Stop Music",  RADIAL_MENU_STOP );
+		radialMenu.setItemLabelAndID( 3,                             "Draw Notes",  RADIAL_MENU_DRAW );
+		radialMenu.setItemLabelAndID( 5,                             "Play Music",  RADIAL_MENU_PLAY );
+		radialMenu.setItemLabelAndID( 7,                             "Erase Notes", RADIAL_MENU_ERASE );
+
+		controlMenu.setItemLabelAndID( ControlMenuWidget.CENTRAL_ITEM, "", -1 );
+		controlMenu.setItemLabelAndID( 1, "Tempo", CONTROL_MENU_TEMPO );
+		controlMenu.setItemLabelAndID( 2, "Pan", CONTROL_MENU_PAN );
+		controlMenu.setItemLabelAndID( 3, "Zoom", CONTROL_MENU_ZOOM );
+		controlMenu.setItemLabelAndID( 5, "Total Duration", CONTROL_MENU_TOTAL_DURATION );
+		controlMenu.setItemLabelAndID( 7, "Transpose", CONTROL_MENU_TRANSPOSE );
+		
+		beatMenu.setItemLabelAndID( RadialMenuWidget.CENTRAL_ITEM, "",            RADIAL_MENU_STOP );
+		beatMenu.setItemLabelAndID( 1,                             "Croche",  BEAT_MENU_CROCHE );
+		beatMenu.setItemLabelAndID( 3,                             "Ronde",  BEAT_MENU_RONDE );
+		beatMenu.setItemLabelAndID( 5,                             "Double croche",  BEAT_MENU_DOUBLE_CROCHE );
+		beatMenu.setItemLabelAndID( 7,                             "Blanche", BEAT_MENU_BLANCHE );
+		
+		
+		flowMenu.setItemLabelAndID( RadialMenuWidget.CENTRAL_ITEM, "",            0 );
+		flowMenu.setItemLabelAndID( 1,                             "Zoom",  1 );
+		flowMenu.setItemLabelAndID( 2,                             "Tempo",  2 );
+		flowMenu.setItemLabelAndID( 3,                             "Draw",  3 );
+		flowMenu.setItemLabelAndID( 4,                             "Transpose", 4 );
+		flowMenu.setItemLabelAndID( 5,                             "Music", 5 );
+		flowMenu.setItemLabelAndID( 6,                             "Duration", 6 );
+		flowMenu.setItemLabelAndID( 7,                             "Pan", 7 );
+		flowMenu.setItemLabelAndID( 8,                             "", 8 );
+		flowMenu.setItemLabelAndID( 9,                             "+/-", 9 );
+		flowMenu.setItemLabelAndID( 10,                            "+/-", 10 );
+		flowMenu.setItemLabelAndID( 11,                            "+/-", 11 );
+		flowMenu.setItemLabelAndID( 12,                            "+/-", 12 );
+		flowMenu.setItemLabelAndID( 13,                            "+/-", 13 );
+		flowMenu.setItemLabelAndID( 14,                            "+/-", 14 );
+		flowMenu.setItemLabelAndID( 15,                            "+/-", 15 );
+		flowMenu.setItemLabelAndID( 16,                            "+/-", 16 );
+		
+
+		gw.frame( score.getBoundingRectangle(), false );
+	}
+	
+	public void saveMusic()
+	{
+		JFileChooser fileChooser = new JFileChooser();
+		FileNameExtensionFilter filter = new FileNameExtensionFilter("Beatz", "beatz");
+		fileChooser.setFileFilter(filter);
+		int result = fileChooser.showSaveDialog(this);
+
+		if(result == JFileChooser.APPROVE_OPTION) {
+
+			String fileName = fileChooser.getSelectedFile().getAbsolutePath();
+
+			if(!fileName.endsWith(".beatz")) {
+				fileName += ".beatz";
+			}
+
+			// Written on a background thread; see saveCompleted().
+			persistence.save(score, new File(fileName));
+		}
+	}
+
+	public void loadMusic()
+	{
+		JFileChooser fileChooser = new JFileChooser();
+		FileNameExtensionFilter filter = new FileNameExtensionFilter("Beatz", "beatz");
+		fileChooser.setFileFilter(filter);
+		int result = fileChooser.showOpenDialog(this);
+
+		if (result == JFileChooser.APPROVE_OPTION) {
+			// Both the binary format and the original text format are accepted.
+			// Read on a background thread; see loadCompleted().
+			persistence.load(fileChooser.getSelectedFile());
+		}
+	}
+
+	public void exportMidi()
+	{
+		JFileChooser fileChooser = new JFileChooser();
+		FileNameExtensionFilter filter = new FileNameExtensionFilter("MIDI", "mid", "midi");
+		fileChooser.setFileFilter(filter);
+		int result = fileChooser.showSaveDialog(this);
+
+		if(result == JFileChooser.APPROVE_OPTION) {
+
+			String fileName = fileChooser.getSelectedFile().getAbsolutePath();
+
+			if(!fileName.endsWith(".mid") && !fileName.endsWith(".midi")) {
+				fileName += ".mid";
+			}
+
+			persistence.exportMidi(score, sleepIntervalInMilliseconds * 1000L, 1, new File(fileName));
+		}
+	}
+
+	public void renderWav()
+	{
+		JFileChooser fileChooser = new JFileChooser();
+		FileNameExtensionFilter filter = new FileNameExtensionFilter("WAV", "wav");
+		fileChooser.setFileFilter(filter);
+		int result = fileChooser.showSaveDialog(this);
+
+		if(result == JFileChooser.APPROVE_OPTION) {
+
+			String fileName = fileChooser.getSelectedFile().getAbsolutePath();
+
+			if(!fileName.endsWith(".wav")) {
+				fileName += ".wav";
+			}
+
+			persistence.renderWav(score, sleepIntervalInMilliseconds * 1000L, new File(fileName));
+		}
+	}
+
+	public void importMidi()
+	{
+		JFileChooser fileChooser = new JFileChooser();
+		FileNameExtensionFilter filter = new FileNameExtensionFilter("MIDI", "mid", "midi");
+		fileChooser.setFileFilter(filter);
+		int result = fileChooser.showOpenDialog(this);
+
+		if (result == JFileChooser.APPROVE_OPTION) {
+			persistence.importMidi(fileChooser.getSelectedFile());
+		}
+	}
+
+	public void persistenceProgress( String description, double fraction ) {
+		simplePianoRoll.setStatus( fraction < 0 ? description + "..." : description + " " + Math.round( fraction * 100 ) + "%" );
+	}
+
+	public void saveCompleted( File file, IOException error ) {
+		if ( error != null ) {
+			error.printStackTrace();
+			simplePianoRoll.setStatus( "Could not save " + file.getName() );
+		}
+		else simplePianoRoll.setStatus( "Saved " + file.getName() );
+	}
+
+	public void loadCompleted( File file, Score newScore, LegacyBeatzParser legacyParser, IOException error ) {
+		if ( error != null ) {
+			error.printStackTrace();
+			simplePianoRoll.setStatus( "Could not load " + file.getName() );
+			return;
+		}
+		if ( legacyParser.getNumBytes() > 0 )
+			System.out.println( "Parsed text .beatz file: " + legacyParser.getSummary() );
+		newScore.publish();
+		score = newScore;
+		simplePianoRoll.updateTrackList();
+		simplePianoRoll.setStatus( "Loaded " + file.getName() );
+		repaint();
+	}
+
+	public void midiImportCompleted( File file, Score newScore, long microsecondsPerBeat, IOException error ) {
+		if ( error != null ) {
+			error.printStackTrace();
+			simplePianoRoll.setStatus( "Could not import " + file.getName() );
+			return;
+		}
+		newScore.publish();
+		score = newScore;
+		simplePianoRoll.updateTrackList();
+		if ( microsecondsPerBeat > 0 )
+			setTempo( (int)Math.max( 10, ( microsecondsPerBeat + 500 ) / 1000 ) );
+		simplePianoRoll.setStatus( "Imported " + file.getName() );
+		repaint();
+	}
+
+	// Sets the duration of a beat, in milliseconds.
+	public void setTempo( int intervalInMilliseconds ) {
+		sleepIntervalInMilliseconds = intervalInMilliseconds;
+		beatScheduler.setIntervalInMilliseconds( sleepIntervalInMilliseconds );
+		playbackEngine.setMicrosecondsPerBeat( sleepIntervalInMilliseconds * 1000L );
+		simplePianoRoll.labelTempo.setText( "Tempo : " + Integer.toString(sleepIntervalInMilliseconds) + " ms");
+	}
+	
+	public Dimension getPreferredSize() {
+		return new Dimension( Constant.INITIAL_WINDOW_WIDTH, Constant.INITIAL_WINDOW_HEIGHT );
+	}
+	public void clear() {
+		score.clear();
+		score.publish();
+		repaint();
+	}
+	public void frameAll() {
+		gw.frame( score.getBoundingRectangle(), false );
+		repaint();
+	}
+	public void paintComponent( Graphics g ) {
+		long startTime = System.nanoTime();
+		if ( PerformanceMetrics.isEnabled() )
+			PerformanceMetrics.paintsExecuted.incrementAndGet();
+		super.paintComponent( g );
+		gw.set( g );
+		if ( getWidth() != gw.getWidth() || getHeight() != gw.getHeight() )
+			gw.resize( getWidth(), getHeight() );
+		gw.clear(0.4f,0.4f,0.4f);
+		gw.setupForDrawing();
+		gw.setCoordinateSystemToWorldSpaceUnits();
+		gw.enableAlphaBlending();
+
+		score.draw(
+			gw,
+			simplePianoRoll.highlightMajorScale,
+			midiNoteNumberOfMouseCurser,
+			beatOfMouseCursor,
+			currentBeat
+		);
+
+		gw.setCoordinateSystemToPixels();
+
+		if ( radialMenu.isVisible() )
+			radialMenu.draw( gw );
+		if ( controlMenu.isVisible() )
+			controlMenu.draw( gw );
+		if ( flowMenu.isVisible() )
+			flowMenu.draw(gw);
+
+		datatipRect = null;
+		if ( ! radialMenu.isVisible() && ! controlMenu.isVisible() && ! flowMenu.isVisible() ) {
+			// draw datatip
+			Rectangle r = getDatatipRect();
+			if ( r != null ) {
+				String s = getDatatipText();
+				gw.setColor( 0, 0, 0, 0.6f );
+				gw.fillRect( r.x, r.y, r.width-1, r.height-1 );
+				gw.setColor( 1, 1, 1 );
+				gw.drawRect( r.x, r.y, r.width-1, r.height-1 );
+				gw.drawString( mouse_x + DATATIP_X_OFFSET + DATATIP_MARGIN, mouse_y - DATATIP_MARGIN, s );
+				datatipRect = r;
+			}
+		}
+		if ( PerformanceMetrics.isEnabled() )
+			PerformanceMetrics.paintTime.record( System.nanoTime() - startTime );
+
+		performanceOverlayRect = null;
+		if ( simplePianoRoll.showPerformanceOverlay )
+			drawPerformanceOverlay();
+	}
+
+	private static final int OVERLAY_MARGIN = 5;
+
+	// The pixels to repaint for the performance overlay as it was last painted, in the top left corner,
+	// or null if it wasn't painted. It spans the width of the canvas, since the length of its lines
+	// changes from frame to frame.
+	private Rectangle performanceOverlayRect = null;
+
+	private void drawPerformanceOverlay() {
+		String [] lines = PerformanceMetrics.getLines();
+		int height = lines.length * ( RadialMenuWidget.textHeight + 2 ) + 2*OVERLAY_MARGIN + 2;
+		performanceOverlayRect = new Rectangle( 0, 0, getWidth(), height );
+		int width = 0;
+		for ( String line : lines )
+			width = Math.max( width, Math.round( gw.stringWidth( line ) ) );
+		Rectangle r = new Rectangle( 0, 0, Math.min( getWidth(), width + 2*OVERLAY_MARGIN ), height );
+		gw.setColor( 0, 0, 0, 0.7f );
+		gw.fillRect( r.x, r.y, r.width, r.height );
+		gw.setColor( 1, 1, 0 );
+		for ( int i = 0; i < lines.length; ++i )
+			gw.drawString( OVERLAY_MARGIN, OVERLAY_MARGIN + ( i + 1 ) * ( RadialMenuWidget.textHeight + 2 ), lines[i] );
+	}
+
+	private static final int DATATIP_MARGIN = 5;
+	private static final int DATATIP_X_OFFSET = 15;
+
+	// The datatip as it was last painted, or null if none was painted.
+	private Rectangle datatipRect = null;
+
+	private String getDatatipText() {
+		return score.namesOfPitchClasses[
+			( midiNoteNumberOfMouseCurser - score.midiNoteNumberOfLowestPitch + score.pitchClassOfLowestPitch )
+			% score.numPitchesInOctave
+		];
+	}
+
+	// Returns the pixels covered by the datatip at the current mouse position
+	// (including its 1 pixel outline), or null if there is no datatip.
+	private Rectangle getDatatipRect() {
+		if ( midiNoteNumberOfMouseCurser < 0 || beatOfMouseCursor < 0 )
+			return null;
+		int x0 = mouse_x + DATATIP_X_OFFSET;
+		int y0 = mouse_y - RadialMenuWidget.textHeight - 2*DATATIP_MARGIN;
+		int height = RadialMenuWidget.textHeight + 2*DATATIP_MARGIN;
+		int width = Math.round( gw.stringWidth( getDatatipText() ) + 2*DATATIP_MARGIN );
+		return new Rectangle( x0, y0, width+1, height+1 );
+	}
+
+	private void repaintPixels( Rectangle r ) {
+		if ( r != null )
+			repaint( r );
+	}
+
+	// Every form of repaint() ends up here, whether it is called by MyCanvas or by Swing.
+	public void repaint( long tm, int x, int y, int width, int height ) {
+		if ( PerformanceMetrics.isEnabled() )
+			PerformanceMetrics.repaintsRequested.incrementAndGet();
+		super.repaint( tm, x, y, width, height );
+	}
+
+	// Instead of repainting the whole canvas when a cursor moves,
+	// these only repaint the pixels that the cursor covered before and after.
+	private void repaintBeatColumn( int beat ) {
+		repaintPixels( score.getBeatColumnInPixels( gw, beat ) );
+	}
+	// The beat thread can't compute where a column is (that depends on the score and on gw,
+	// which belong to the EDT), so it queues the beats whose column changed, and the EDT repaints them.
+	// If the EDT falls behind by more than a few beats, it repaints everything instead.
+	private final int [] beatsToRepaint = new int[ 8 ];
+	private int numBeatsToRepaint = 0; // -1 to repaint everything; guarded by beatsToRepaint
+	private final Runnable beatColumnRepainter = new Runnable() {
+		public void run() {
+			int [] beats;
+			synchronized( beatsToRepaint ) {
+				beats = numBeatsToRepaint < 0 ? null : Arrays.copyOf( beatsToRepaint, numBeatsToRepaint );
+				numBeatsToRepaint = 0;
+			}
+			if ( beats == null )
+				repaintPixels( new Rectangle( 0, 0, getWidth(), getHeight() ) );
+			else {
+				for ( int beat : beats )
+					repaintBeatColumn( beat );
+				if ( simplePianoRoll.showPerformanceOverlay )
+					repaintPixels( performanceOverlayRect );
+			}
+		}
+	};
+	private void queueBeatColumnRepaints( int beat1, int beat2 ) {
+		boolean isQueueEmpty;
+		synchronized( beatsToRepaint ) {
+			isQueueEmpty = numBeatsToRepaint == 0;
+			if ( numBeatsToRepaint >= 0 && numBeatsToRepaint + 2 <= beatsToRepaint.length ) {
+				beatsToRepaint[ numBeatsToRepaint ++ ] = beat1;
+				beatsToRepaint[ numBeatsToRepaint ++ ] = beat2;
+			}
+			else numBeatsToRepaint = -1;
+		}
+		if ( isQueueEmpty )
+			SwingUtilities.invokeLater( beatColumnRepainter );
+	}
+	private void repaintPitchRow( int midiNoteNumber ) {
+		repaintPixels( score.getPitchRowInPixels( gw, midiNoteNumber ) );
+	}
+	private void repaintDatatip() {
+		repaintPixels( datatipRect );
+		repaintPixels( getDatatipRect() );
+	}
+	private void repaintMouseCursor( int oldBeat, int oldMidiNoteNumber ) {
+		if ( oldBeat != beatOfMouseCursor ) {
+			repaintBeatColumn( oldBeat );
+			repaintBeatColumn( beatOfMouseCursor );
+		}
+		if ( oldMidiNoteNumber != midiNoteNumberOfMouseCurser ) {
+			repaintPitchRow( oldMidiNoteNumber );
+			repaintPitchRow( midiNoteNumberOfMouseCurser );
+		}
+		repaintDatatip();
+	}
+
+	public void keyPressed( KeyEvent e ) {
+		if ( e.getKeyCode() == KeyEvent.VK_CONTROL ) {
+			isControlKeyDown = true;
+			if (
+				beatOfMouseCursor>=0
+				&& simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER_IF_SPECIAL_KEY_HELD_DOWN
+			)
+				playNote( midiNoteNumberOfMouseCurser );
+		}
+	}
+	public void keyReleased( KeyEvent e ) {
+		if ( e.getKeyCode() == KeyEvent.VK_CONTROL ) {
+			isControlKeyDown = false;
+			stopPlayingNote( midiNoteNumberOfMouseCurser );
+		}
+	}
+	public void keyTyped( KeyEvent e ) {
+		
+	}
+
+
+	public void mouseClicked( MouseEvent e ) { }
+	public void mouseEntered( MouseEvent e ) { }
+	public void mouseExited( MouseEvent e ) { }
+
+	// Returns the step to which notes drawn with the mouse are snapped, in ticks:
+	// the one chosen by the user, or else the one for the current zoom (see Score.getSnapInTicks()).
+	private int getSnapInTicks() {
+		if ( simplePianoRoll.snapSubdivision > 0 )
+			return Score.TICKS_PER_BEAT / simplePianoRoll.snapSubdivision;
+		return score.getSnapInTicks( gw );
+	}
+
+	private void paint( int mouse_x, int mouse_y, int duration ) {
+		int tickOfMouseCursor = score.getTickForMouseX( gw, mouse_x, getSnapInTicks() );
+		int newBeatOfMouseCursor = tickOfMouseCursor < 0 ? -1 : tickOfMouseCursor / Score.TICKS_PER_BEAT;
+		int newMidiNoteNumberOfMouseCurser = score.getMidiNoteNumberForMouseY( gw, mouse_y );
+		int oldBeatOfMouseCursor = beatOfMouseCursor;
+		int oldMidiNoteNumberOfMouseCurser = midiNoteNumberOfMouseCurser;
+		beatOfMouseCursor = newBeatOfMouseCursor;
+		midiNoteNumberOfMouseCurser = newMidiNoteNumberOfMouseCurser;
+		repaintMouseCursor( oldBeatOfMouseCursor, oldMidiNoteNumberOfMouseCurser );
+
+		if ( beatOfMouseCursor < 0 || midiNoteNumberOfMouseCurser < 0 )
+			return;
+		int indexOfPitch = midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch;
+		// The notes edited may span several beats, so their whole row is repainted.
+		if ( simplePianoRoll.dragMode == SimplePianoRoll.DM_ERASE_NOTES ) {
+			if ( score.isNoteAtTick( tickOfMouseCursor, indexOfPitch ) ) {
+				score.removeNoteAtTick( tickOfMouseCursor, indexOfPitch );
+				repaintPitchRow( midiNoteNumberOfMouseCurser );
+			}
+		}
+		// The note isn't added if it would overlap one of the same pitch.
+		else if ( ! score.isNoteDuringTicks( tickOfMouseCursor, duration, indexOfPitch ) ) {
+			String s = score.namesOfPitchClasses[
+				( indexOfPitch + score.pitchClassOfLowestPitch ) % score.numPitchesInOctave
+			];
+			if (Arrays.asList((simplePianoRoll.gammePermise)).contains(s))
+			{
+				score.setNoteAtTick( tickOfMouseCursor, indexOfPitch, duration );
+				repaintPitchRow( midiNoteNumberOfMouseCurser );
+			}
+		}
+		score.publish();
+	}
+
+	public void mousePressed( MouseEvent e ) {
+		old_mouse_x = mouse_x;
+		old_mouse_y = mouse_y;
+		mouse_x = e.getX();
+		mouse_y = e.getY();
+
+		isControlKeyDown = e.isControlDown();
+
+		if ( radialMenu.isVisible() || (SwingUtilities.isLeftMouseButton(e) && e.isControlDown()) ) {
+			int returnValue = radialMenu.pressEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( controlMenu.isVisible() || (SwingUtilities.isLeftMouseButton(e) && e.isShiftDown()) ) {
+			int returnValue = controlMenu.pressEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( SwingUtilities.isLeftMouseButton(e) ) {
+			paint( mouse_x, mouse_y, Constant.tempsNoire);
+		} else if(SwingUtilities.isRightMouseButton(e) || flowMenu.isVisible()) {
+			
+			int returnValue = flowMenu.pressEvent( mouse_x, mouse_y );
+			
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+	}
+
+	public void mouseReleased( MouseEvent e ) {
+		old_mouse_x = mouse_x;
+		old_mouse_y = mouse_y;
+		mouse_x = e.getX();
+		mouse_y = e.getY();
+
+		isControlKeyDown = e.isControlDown();
+
+		if ( radialMenu.isVisible() ) {
+			int returnValue = radialMenu.releaseEvent( mouse_x, mouse_y );
+
+			int itemID = radialMenu.getIDOfSelection();
+			if ( 0 <= itemID ) {
+				switch ( itemID ) {
+					case RADIAL_MENU_PLAY:
+						simplePianoRoll.setMusicPlaying( true );
+						break;
+					case RADIAL_MENU_STOP:
+						simplePianoRoll.setMusicPlaying( false );
+						break;
+					case RADIAL_MENU_DRAW:
+						simplePianoRoll.setDragMode( SimplePianoRoll.DM_DRAW_NOTES );
+						break;
+					case RADIAL_MENU_ERASE:
+						simplePianoRoll.setDragMode( SimplePianoRoll.DM_ERASE_NOTES );
+						break;
+				}
+			}
+
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( controlMenu.isVisible() ) {
+			int returnValue = controlMenu.releaseEvent( mouse_x, mouse_y );
+
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		
+		if ( flowMenu.isVisible() ) {
+			int returnValue = flowMenu.releaseEvent( mouse_x, mouse_y );
+			
+			/*
+			int itemID = beatMenu.getIDOfSelection();
+			if ( 0 <= itemID ) {
+				switch ( itemID ) {
+					case BEAT_MENU_BLANCHE:
+						paint( beatMenu.x0, beatMenu.y0, Constant.tempsBlanche );
+						break;
+					case BEAT_MENU_RONDE:
+						paint( beatMenu.x0, beatMenu.y0, Constant.tempsRonde );
+						break;
+					case BEAT_MENU_CROCHE:
+						paint( beatMenu.x0, beatMenu.y0, Constant.tempsCroche );
+						break;
+					case BEAT_MENU_DOUBLE_CROCHE:
+						paint( beatMenu.x0, beatMenu.y0, Constant.tempsDoubleCroche );
+						break;
+				}
+			}
+			*/
+			
+		}
+	}
+
+	// Notes are previewed with the channel and instrument of the current track.
+	private void playNote( int midiNoteNumber ) {
+		if ( Constant.USE_SOUND && midiNoteNumber >= 0 ) {
+			ScoreTrack track = score.getCurrentTrack();
+			MidiChannel channel = simplePianoRoll.midiChannels[ track.channel ];
+			if ( channel.getProgram() != track.program )
+				channel.programChange( track.program );
+			channel.noteOn(midiNoteNumber,Constant.midiVolume);
+			previewChannel = track.channel;
+		}
+	}
+	private void stopPlayingNote( int midiNoteNumber ) {
+		if ( Constant.USE_SOUND && midiNoteNumber >= 0 ) {
+			simplePianoRoll.midiChannels[ previewChannel ].noteOff(midiNoteNumber);
+		}
+	}
+
+	public void mouseMoved( MouseEvent e ) {
+		old_mouse_x = mouse_x;
+		old_mouse_y = mouse_y;
+		mouse_x = e.getX();
+		mouse_y = e.getY();
+
+		requestFocusInWindow();
+
+		isControlKeyDown = e.isControlDown();
+
+		if ( radialMenu.isVisible() ) {
+			int returnValue = radialMenu.moveEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( controlMenu.isVisible() ) {
+			int returnValue = controlMenu.moveEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		else {
+			int newBeatOfMouseCursor = score.getBeatForMouseX( gw, mouse_x );
+			int newMidiNoteNumberOfMouseCurser = score.getMidiNoteNumberForMouseY( gw, mouse_y );
+			int oldBeatOfMouseCursor = beatOfMouseCursor;
+			int oldMidiNoteNumberOfMouseCurser = midiNoteNumberOfMouseCurser;
+			beatOfMouseCursor = newBeatOfMouseCursor;
+			if ( newMidiNoteNumberOfMouseCurser != midiNoteNumberOfMouseCurser ) {
+				stopPlayingNote( midiNoteNumberOfMouseCurser );
+				midiNoteNumberOfMouseCurser = newMidiNoteNumberOfMouseCurser;
+				if (
+					beatOfMouseCursor>=0
+					&& (
+						simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER
+						|| (
+							simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER_IF_SPECIAL_KEY_HELD_DOWN
+							&& isControlKeyDown
+						)
+					)
+				)
+					playNote( midiNoteNumberOfMouseCurser );
+			}
+			repaintMouseCursor( oldBeatOfMouseCursor, oldMidiNoteNumberOfMouseCurser );
+		}
+
+	}
+
+	public void mouseDragged( MouseEvent e ) {
+		old_mouse_x = mouse_x;
+		old_mouse_y = mouse_y;
+		mouse_x = e.getX();
+		mouse_y = e.getY();
+		int delta_x = mouse_x - old_mouse_x;
+		int delta_y = mouse_y - old_mouse_y;
+
+		isControlKeyDown = e.isControlDown();
+
+		if ( radialMenu.isVisible() ) {
+			int returnValue = radialMenu.dragEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( flowMenu.isVisible() ) {
+			
+			int returnValue = flowMenu.dragEvent( mouse_x, mouse_y );
+			
+			if ( returnValue == CustomWidget.S_REDRAW ) {
+				
+				switch ( flowMenu.getIDOfSelection() ) {
+				case FLOW_MENU_ZOOM:
+					enableItem(FLOW_MENU_ZOOM_ITEMS);
+					break;
+				case FLOW_MENU_TEMPO:
+					enableItem(FLOW_MENU_TEMPO_ITEMS);
+					break;
+				case FLOW_MENU_DRAW:
+					enableItem(FLOW_MENU_DRAW_ITEMS);
+					break;
+				case FLOW_MENU_TRANSPOSE:
+					enableItem(FLOW_MENU_TRANSPOSE_ITEMS);
+					break;
+				case FLOW_MENU_MUSIC:
+					enableItem(FLOW_MENU_MUSIC_ITEMS);
+					break;
+				case FLOW_MENU_TOTAL_DURATION:
+					enableItem(FLOW_MENU_TOTAL_DURATION_ITEMS);
+				case FLOW_MENU_PAN:
+					enableItem(FLOW_MENU_PAN_ITEMS);
+					break;
+				}
+				
+				repaint();
+			}
+			
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( controlMenu.isVisible() ) {
+			if ( controlMenu.isInMenuingMode() ) {
+				int returnValue = controlMenu.dragEvent( mouse_x, mouse_y );
+				if ( returnValue == CustomWidget.S_REDRAW )
+					repaint();
+				if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+					return;
+			}
+			else {
+				// use the drag event to change the appropriate parameter
+				switch ( controlMenu.getIDOfSelection() ) {
+				case CONTROL_MENU_PAN:
+					gw.pan( delta_x, delta_y );
+					break;
+				case CONTROL_MENU_ZOOM:
+					gw.zoomIn( (float)Math.pow( Constant.zoomFactorPerPixelDragged, delta_x-delta_y ) );
+					break;
+				case CONTROL_MENU_TOTAL_DURATION:
+					// Changement #1
+					// Notes beyond the new end are kept, so dragging back restores them.
+					if ( score.numBeats + delta_x > 0 ) {
+						score.setNumBeats( score.numBeats + delta_x );
+						score.publish();
+					}
+
+					break;
+				case CONTROL_MENU_TEMPO:
+					// Changement 3b
+					if (delta_y > 0)
+						setTempo( sleepIntervalInMilliseconds + 10 );
+					else if (sleepIntervalInMilliseconds > 10)
+						setTempo( sleepIntervalInMilliseconds - 10 );
+					
+					break;
+				default:
+					// TODO XXX
+					break;
+				}
+				repaint();
+			}
+		}
+		else {
+			paint( mouse_x, mouse_y, Constant.tempsNoire);
+		}
+	}
+
+	private void enableItem(int index) {
+		
+		// On desactive tout les items du second niveau
+		for (int i=9; i<=16; i++) {
+			flowMenu.setItemEnabled(i, false);
+		}
+		
+		// On active l'item du second niveau voulu.
+		flowMenu.setItemEnabled(index, true);
+		
+	}
+	
+	public void startBackgroundWork() {
+		repaintBeatColumn( currentBeat );
+		currentBeat = -1; // the first beat fired by beatScheduler is beat 0
+		beatScheduler.setIntervalInMilliseconds( sleepIntervalInMilliseconds );
+		playbackEngine.start( score.publish(), 0, sleepIntervalInMilliseconds * 1000L );
+		beatScheduler.start();
+	}
+	public void stopBackgroundWork() {
+		beatScheduler.stop();
+		playbackEngine.stop();
+	}
+
+	// Called by beatScheduler, on its own thread, once per beat.
+	public void beatElapsed( long latenessInNanoseconds ) {
+		if ( PerformanceMetrics.isEnabled() )
+			PerformanceMetrics.beatLateness.record( latenessInNanoseconds );
+		int previousBeat = currentBeat;
+		// No lock: the score is only read through its latest published snapshot.
+		ScoreSnapshot s = score.getSnapshot();
+		currentBeat += 1;
+		if ( currentBeat >= s.numBeats )
+			currentBeat = 0;
+		// The notes themselves were sent ahead of time, with timestamps;
+		// this only tops up the playback engine's lookahead window.
+		playbackEngine.pump( s );
+
+		if (controlMenu.isVisible() && controlMenu.getIDOfSelection() == CONTROL_MENU_TEMPO  )
+			//simplePianoRoll.midiChannels[0].noteOn(50,250);
+			simplePianoRoll.midiChannels[15].noteOn(28,100);
+		queueBeatColumnRepaints( previousBeat, currentBeat );
+	}
+
+}
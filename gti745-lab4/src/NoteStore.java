@@ -0,0 +1,219 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+// A sparse store of notes, keyed by beat.
+//
+// A note starts at a given tick (see PlaybackEngine.TICKS_PER_BEAT) of a given beat,
+// called its offset, so notes can start between beats without the store
+// holding a cell per tick: the resolution costs nothing for the ticks that have no note.
+// Only the beats that contain at least one note are stored.
+// Each of them maps to a small row of packed ints,
+// one per note, sorted by offset and then by pitch (i.e. in order of time):
+//
+//    bits 30..22    offset, in ticks from the start of the beat
+//    bits 21..15    index of pitch (0 for the lowest pitch of the score)
+//    bits 14..0     duration, in ticks (see Constant.tempsNoire, etc.)
+//
+// Beats are kept in a balanced tree, so inserting or removing a note
+// is O(log n) in the number of occupied beats (plus O(m) in the number
+// of notes already in that beat, which is bounded by the number of pitches
+// times the number of distinct offsets used),
+// and iterating over a range of beats only visits the occupied ones.
+public class NoteStore {
+
+	public static final int MAX_DURATION = 0x7FFF;
+	public static final int MAX_OFFSET = 0x1FF;
+	public static final int MAX_PITCH = 0x7F;
+
+	private static final class Row {
+		int [] notes = new int[ 4 ];
+		int count = 0;
+	}
+
+	private TreeMap< Integer, Row > rows = new TreeMap< Integer, Row >();
+	private int numNotes = 0;
+
+	public static int pack( int offset, int pitch, int duration ) {
+		return ( offset << 22 ) | ( pitch << 15 ) | ( duration & MAX_DURATION );
+	}
+	public static int offsetOf( int packedNote ) { return packedNote >>> 22; }
+	public static int pitchOf( int packedNote ) { return ( packedNote >>> 15 ) & MAX_PITCH; }
+	public static int durationOf( int packedNote ) { return packedNote & MAX_DURATION; }
+	// The part of a packed note that identifies it within its beat, in the order of the rows.
+	private static int keyOf( int offset, int pitch ) { return ( offset << 7 ) | pitch; }
+	private static int keyOf( int packedNote ) { return packedNote >>> 15; }
+
+	public int size() { return numNotes; }
+	public int getNumOccupiedBeats() { return rows.size(); }
+	public boolean isEmpty() { return numNotes == 0; }
+
+	// Returns the index of the note within the row, or (-(insertion point)-1) if absent.
+	private static int search( Row row, int offset, int pitch ) {
+		int key = keyOf( offset, pitch );
+		int lo = 0, hi = row.count - 1;
+		while ( lo <= hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			int k = keyOf( row.notes[mid] );
+			if ( k < key ) lo = mid + 1;
+			else if ( k > key ) hi = mid - 1;
+			else return mid;
+		}
+		return -( lo + 1 );
+	}
+
+	public boolean contains( int beat, int offset, int pitch ) {
+		Row row = rows.get( beat );
+		return row != null && search( row, offset, pitch ) >= 0;
+	}
+
+	// Returns true if a note of the given pitch starts anywhere within the beat.
+	public boolean containsPitch( int beat, int pitch ) {
+		Row row = rows.get( beat );
+		if ( row != null )
+			for ( int i = 0; i < row.count; ++i )
+				if ( pitchOf( row.notes[i] ) == pitch )
+					return true;
+		return false;
+	}
+
+	// Returns 0 if there is no note at the given position.
+	public int getDuration( int beat, int offset, int pitch ) {
+		Row row = rows.get( beat );
+		if ( row == null )
+			return 0;
+		int i = search( row, offset, pitch );
+		return i >= 0 ? durationOf( row.notes[i] ) : 0;
+	}
+
+	// Adds a note, or changes the duration of an existing one.
+	// Returns true if a new note was added.
+	public boolean put( int beat, int offset, int pitch, int duration ) {
+		assert 0 <= offset && offset <= MAX_OFFSET && 0 <= pitch && pitch <= MAX_PITCH && 0 < duration && duration <= MAX_DURATION;
+		Row row = rows.get( beat );
+		if ( row == null ) {
+			row = new Row();
+			rows.put( beat, row );
+		}
+		int i = search( row, offset, pitch );
+		if ( i >= 0 ) {
+			row.notes[i] = pack( offset, pitch, duration );
+			return false;
+		}
+		i = -i - 1;
+		if ( row.count == row.notes.length ) {
+			int [] newNotes = new int[ row.notes.length * 2 ];
+			System.arraycopy( row.notes, 0, newNotes, 0, row.count );
+			row.notes = newNotes;
+		}
+		System.arraycopy( row.notes, i, row.notes, i + 1, row.count - i );
+		row.notes[i] = pack( offset, pitch, duration );
+		row.count ++;
+		numNotes ++;
+		return true;
+	}
+
+	// Returns true if a note was removed.
+	public boolean remove( int beat, int offset, int pitch ) {
+		Row row = rows.get( beat );
+		if ( row == null )
+			return false;
+		int i = search( row, offset, pitch );
+		if ( i < 0 )
+			return false;
+		System.arraycopy( row.notes, i + 1, row.notes, i, row.count - i - 1 );
+		row.count --;
+		numNotes --;
+		if ( row.count == 0 )
+			rows.remove( beat );
+		return true;
+	}
+
+	public void clear() {
+		rows.clear();
+		numNotes = 0;
+	}
+
+	// Returns a copy of the packed notes of the given beat, or null if it has none.
+	public int [] copyNotesAtBeat( int beat ) {
+		Row row = rows.get( beat );
+		if ( row == null )
+			return null;
+		int [] notes = new int[ row.count ];
+		System.arraycopy( row.notes, 0, notes, 0, row.count );
+		return notes;
+	}
+
+	// Returns the start, in ticks, of a note of the given pitch that sounds during [startTick,endTick)
+	// (the one that starts last, if several do), or -1 if there is none.
+	// Beats and offsets are converted to ticks with the given number of ticks per beat.
+	// The beats are visited backward from endTick, only as far as a note of MAX_DURATION could reach.
+	public int findNoteOverlapping( int startTick, int endTick, int pitch, int ticksPerBeat ) {
+		int lastBeat = ( endTick - 1 ) / ticksPerBeat;
+		for ( Map.Entry< Integer, Row > e : rows.headMap( lastBeat, true ).descendingMap().entrySet() ) {
+			int beat = e.getKey();
+			if ( beat * ticksPerBeat + MAX_OFFSET + MAX_DURATION <= startTick )
+				break;
+			Row row = e.getValue();
+			for ( int i = row.count - 1; i >= 0; --i ) {
+				int note = row.notes[i];
+				int start = beat * ticksPerBeat + offsetOf( note );
+				if ( pitchOf( note ) == pitch && start < endTick && startTick < start + durationOf( note ) )
+					return start;
+			}
+		}
+		return -1;
+	}
+
+	// Returns the first occupied beat that is >= the given beat, or -1 if none.
+	public int nextOccupiedBeat( int beat ) {
+		Integer b = rows.ceilingKey( beat );
+		return b == null ? -1 : b;
+	}
+
+	// Visits every note in the range [beatMin,beatMax) in order of beat, then offset, then pitch.
+	// Usage:
+	//    NoteStore.Cursor c = store.cursor( beatMin, beatMax );
+	//    while ( c.next() ) { ... c.beat() ... c.offset() ... c.pitch() ... c.duration() ... }
+	public Cursor cursor( int beatMin, int beatMax ) {
+		return new Cursor( beatMin < beatMax ? rows.subMap( beatMin, true, beatMax, false ) : null );
+	}
+
+	public Cursor cursor() {
+		return new Cursor( rows );
+	}
+
+	public static final class Cursor {
+		private Iterator< Map.Entry< Integer, Row > > iterator;
+		private Row row = null;
+		private int beat = -1;
+		private int index = 0;
+
+		private Cursor( Map< Integer, Row > map ) {
+			iterator = map == null ? null : map.entrySet().iterator();
+		}
+
+		// Advances to the next note. Returns false when there are no more notes.
+		public boolean next() {
+			if ( row != null && ++index < row.count )
+				return true;
+			if ( iterator == null || ! iterator.hasNext() ) {
+				row = null;
+				return false;
+			}
+			Map.Entry< Integer, Row > e = iterator.next();
+			beat = e.getKey();
+			row = e.getValue();
+			index = 0;
+			return true;
+		}
+
+		public int beat() { return beat; }
+		public int offset() { return offsetOf( row.notes[index] ); }
+		public int pitch() { return pitchOf( row.notes[index] ); }
+		public int duration() { return durationOf( row.notes[index] ); }
+	}
+
+}
+
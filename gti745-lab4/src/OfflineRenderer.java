@@ -0,0 +1,139 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+
+// Renders a score to a WAV file, without an audio device and as fast as the CPU allows.
+//
+// The JDK's software synthesizer (Gervill) can be opened with openStream(),
+// in which case, instead of playing to a sound card, it produces audio
+// only as its AudioInputStream is read. All the events of the score are sent
+// up front with timestamps (in microseconds from the start of the stream),
+// and the synthesizer applies each one when rendering reaches it.
+//
+// openStream() is declared by com.sun.media.sound.AudioSynthesizer, which isn't a public API,
+// so it is called by reflection. On Java 9 and later, this requires running with
+//    --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED
+// which the manifest of the jar built by pom.xml does for ``java -jar''.
+public class OfflineRenderer {
+
+	// Time given to the last notes to fade out, after the end of the score.
+	public static final long RELEASE_TAIL_IN_MICROSECONDS = 1000000;
+
+	private AudioFormat format = new AudioFormat( 44100, 16, 2, true, false );
+
+	// Statistics on the last render
+	private long renderedMicroseconds = 0;
+	private long elapsedNanoseconds = 0;
+	private int numEvents = 0;
+
+	public void setFormat( AudioFormat format ) {
+		this.format = format;
+	}
+
+	public long getRenderedMicroseconds() { return renderedMicroseconds; }
+	public long getElapsedNanoseconds() { return elapsedNanoseconds; }
+	public int getNumEvents() { return numEvents; }
+
+	// How many times faster than real time the last render was.
+	public double getSpeedup() {
+		return elapsedNanoseconds == 0 ? 0 : renderedMicroseconds * 1000.0 / elapsedNanoseconds;
+	}
+
+	public String getSummary() {
+		return String.format(
+			"%d events, %.2f s of audio in %.2f s: %.1fx real time",
+			numEvents, renderedMicroseconds / 1e6, elapsedNanoseconds / 1e9, getSpeedup()
+		);
+	}
+
+	private AudioInputStream openStream( Synthesizer synthesizer ) throws IOException {
+		try {
+			Method m = synthesizer.getClass().getMethod( "openStream", AudioFormat.class, Map.class );
+			return (AudioInputStream)m.invoke( synthesizer, format, null );
+		}
+		catch ( NoSuchMethodException e ) {
+			throw new IOException( "The default synthesizer can't render offline", e );
+		}
+		catch ( IllegalAccessException e ) {
+			throw new IOException(
+				"Offline rendering needs --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED", e
+			);
+		}
+		catch ( InvocationTargetException e ) {
+			throw new IOException( "Could not open the synthesizer", e.getCause() );
+		}
+		catch ( RuntimeException e ) {
+			// InaccessibleObjectException, on Java 9 and later, is a RuntimeException
+			throw new IOException(
+				"Offline rendering needs --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED", e
+			);
+		}
+	}
+
+	// Renders one pass through the score, at the given tempo, followed by RELEASE_TAIL_IN_MICROSECONDS.
+	public void render( Score score, long microsecondsPerBeat, File file ) throws IOException {
+		long startTime = System.nanoTime();
+		microsecondsPerBeat = Math.max( 1, microsecondsPerBeat );
+		Sequence sequence;
+		Synthesizer synthesizer;
+		try {
+			sequence = MidiFileConverter.toSequence( score, microsecondsPerBeat, 0 );
+			synthesizer = MidiSystem.getSynthesizer();
+		}
+		catch ( InvalidMidiDataException e ) {
+			throw new IOException( e );
+		}
+		catch ( MidiUnavailableException e ) {
+			throw new IOException( e );
+		}
+
+		AudioInputStream stream = openStream( synthesizer );
+		try {
+			Receiver receiver = synthesizer.getReceiver();
+			// The sequence has a single track, in order of time,
+			// and the tempo is constant, so ticks convert linearly to microseconds.
+			Track track = sequence.getTracks()[0];
+			long ticksPerBeat = sequence.getResolution();
+			numEvents = 0;
+			for ( int i = 0; i < track.size(); ++i ) {
+				MidiEvent event = track.get( i );
+				MidiMessage message = event.getMessage();
+				if ( message instanceof MetaMessage )
+					continue;
+				receiver.send( message, event.getTick() * microsecondsPerBeat / ticksPerBeat );
+				numEvents ++;
+			}
+			renderedMicroseconds = track.ticks() * microsecondsPerBeat / ticksPerBeat + RELEASE_TAIL_IN_MICROSECONDS;
+
+			long numFrames = (long)( renderedMicroseconds / 1e6 * format.getFrameRate() );
+			AudioInputStream clip = new AudioInputStream( stream, format, numFrames );
+			AudioSystem.write( clip, AudioFileFormat.Type.WAVE, file );
+		}
+		catch ( MidiUnavailableException e ) {
+			throw new IOException( e );
+		}
+		finally {
+			synthesizer.close();
+		}
+		elapsedNanoseconds = System.nanoTime() - startTime;
+	}
+
+}
@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Measurements of the drawing and playback, recorded by the code being measured
+// (MyCanvas, Score.draw, PlaybackEngine) and shown by the performance overlay
+// (see View > Show Performance Overlay) or printed with getLines().
+// Durations are in nanoseconds.
+// Nothing is recorded unless the measurements are enabled, by the overlay
+// or by whatever else reads them, so that they cost nothing the rest of the time.
+public class PerformanceMetrics {
+
+	private static volatile boolean isEnabled = false;
+
+	public static boolean isEnabled() { return isEnabled; }
+
+	// Enabling the measurements also resets them, so that they cover only the time since.
+	public static void setEnabled( boolean flag ) {
+		if ( flag && ! isEnabled )
+			reset();
+		isEnabled = flag;
+	}
+
+	// MyCanvas.paintComponent(), from start to end (excluding the overlay itself)
+	public static final LatencyHistogram paintTime = new LatencyHistogram();
+
+	// Score.draw(), split by layer
+	public static final LatencyHistogram backgroundTime = new LatencyHistogram(); // mouse row and cached background
+	public static final LatencyHistogram cursorTime = new LatencyHistogram(); // mouse column and time cursor
+	public static final LatencyHistogram notesTime = new LatencyHistogram();
+
+	// Calls to repaint() on MyCanvas, and calls to its paintComponent(); the difference was coalesced
+	// by Swing's RepaintManager. Paints asked for by the window system (e.g. when the window is uncovered)
+	// aren't requested through repaint(), so the difference can be negative after those.
+	public static final AtomicLong repaintsRequested = new AtomicLong();
+	public static final AtomicLong paintsExecuted = new AtomicLong();
+
+	// How late each beat was fired by the BeatScheduler
+	public static final LatencyHistogram beatLateness = new LatencyHistogram();
+
+	// Number of MIDI messages sent by each call to PlaybackEngine.pump() (i.e. each beat)
+	public static final LatencyHistogram midiMessagesPerPump = new LatencyHistogram();
+
+	public static void reset() {
+		paintTime.reset();
+		backgroundTime.reset();
+		cursorTime.reset();
+		notesTime.reset();
+		repaintsRequested.set( 0 );
+		paintsExecuted.set( 0 );
+		beatLateness.reset();
+		midiMessagesPerPump.reset();
+	}
+
+	public static String [] getLines() {
+		long requested = repaintsRequested.get();
+		long executed = paintsExecuted.get();
+		return new String[] {
+			"paint: " + paintTime.getSummary( 1e6, "ms" ),
+			"background: " + backgroundTime.getSummary( 1e6, "ms" ),
+			"cursors: " + cursorTime.getSummary( 1e6, "ms" ),
+			"notes: " + notesTime.getSummary( 1e6, "ms" ),
+			"repaints: " + requested + " requested, " + executed + " executed, "
+				+ ( requested - executed ) + " coalesced",
+			"beat lateness: " + beatLateness.getSummary( 1e3, "us" ),
+			"MIDI per beat: " + midiMessagesPerPump.getSummary( 1, "messages" ),
+		};
+	}
+
+}
@@ -0,0 +1,109 @@
+import java.util.Arrays;
+
+
+// Records which pitches are occupied at each beat, as a bitset.
+//
+// Each beat is stored in two consecutive long words
+// (bits 0..63 of the first word for pitches 0..63,
+// bits 0..63 of the second word for pitches 64..127),
+// so queries over all the pitches of a beat are a handful of
+// word-parallel operations instead of a loop over every pitch.
+// Beats beyond the current capacity are considered empty.
+public class PitchOccupancy {
+
+	public static final int MAX_PITCHES = 128;
+
+	private long [] words;
+
+	public PitchOccupancy( int initialNumBeats ) {
+		words = new long[ 2 * Math.max( 1, initialNumBeats ) ];
+	}
+
+	public int getCapacityInBeats() { return words.length / 2; }
+
+	// Grows (doubling) so that beats [0,numBeats) are stored; never shrinks.
+	public void ensureCapacity( int numBeats ) {
+		if ( 2 * numBeats <= words.length )
+			return;
+		int newLength = words.length;
+		while ( newLength < 2 * numBeats )
+			newLength *= 2;
+		long [] newWords = new long[ newLength ];
+		System.arraycopy( words, 0, newWords, 0, words.length );
+		words = newWords;
+	}
+
+	public void set( int beat, int pitch ) {
+		assert 0 <= beat && 0 <= pitch && pitch < MAX_PITCHES;
+		ensureCapacity( beat + 1 );
+		words[ 2*beat + (pitch >>> 6) ] |= 1L << pitch;
+	}
+
+	public void clear( int beat, int pitch ) {
+		assert 0 <= pitch && pitch < MAX_PITCHES;
+		if ( beat < 0 || 2*beat >= words.length )
+			return;
+		words[ 2*beat + (pitch >>> 6) ] &= ~( 1L << pitch );
+	}
+
+	public void clear() {
+		Arrays.fill( words, 0L );
+	}
+
+	private long low( int beat ) {
+		return ( beat < 0 || 2*beat >= words.length ) ? 0 : words[ 2*beat ];
+	}
+	private long high( int beat ) {
+		return ( beat < 0 || 2*beat >= words.length ) ? 0 : words[ 2*beat + 1 ];
+	}
+
+	public boolean isSet( int beat, int pitch ) {
+		if ( pitch < 0 || pitch >= MAX_PITCHES )
+			return false;
+		long w = pitch < 64 ? low( beat ) : high( beat );
+		return ( w & ( 1L << pitch ) ) != 0;
+	}
+
+	public boolean isBeatEmpty( int beat ) {
+		return ( low( beat ) | high( beat ) ) == 0;
+	}
+
+	public int countPitchesAtBeat( int beat ) {
+		return Long.bitCount( low( beat ) ) + Long.bitCount( high( beat ) );
+	}
+
+	// Returns the lowest set bit that is >= fromPitch, or -1 if none.
+	private static int nextSetBit( long lo, long hi, int fromPitch ) {
+		if ( fromPitch < 64 ) {
+			long w = lo & ( -1L << Math.max( fromPitch, 0 ) );
+			if ( w != 0 )
+				return Long.numberOfTrailingZeros( w );
+			fromPitch = 64;
+		}
+		if ( fromPitch < MAX_PITCHES ) {
+			long w = hi & ( -1L << fromPitch );
+			if ( w != 0 )
+				return 64 + Long.numberOfTrailingZeros( w );
+		}
+		return -1;
+	}
+
+	// Returns the lowest occupied pitch >= fromPitch at the given beat, or -1 if none.
+	// To visit every occupied pitch:
+	//    for ( int p = o.nextSetPitch( beat, 0 ); p >= 0; p = o.nextSetPitch( beat, p+1 ) ) ...
+	public int nextSetPitch( int beat, int fromPitch ) {
+		return nextSetBit( low( beat ), high( beat ), fromPitch );
+	}
+
+	// Returns the lowest pitch >= fromPitch that is occupied at beatA but not at beatB, or -1 if none.
+	public int nextPitchOnlyInFirst( int beatA, int beatB, int fromPitch ) {
+		return nextSetBit( low( beatA ) & ~low( beatB ), high( beatA ) & ~high( beatB ), fromPitch );
+	}
+
+	// Returns the lowest pitch >= fromPitch whose occupancy differs between the two beats, or -1 if none.
+	public int nextChangedPitch( int beatA, int beatB, int fromPitch ) {
+		return nextSetBit( low( beatA ) ^ low( beatB ), high( beatA ) ^ high( beatB ), fromPitch );
+	}
+
+}
+
@@ -0,0 +1,441 @@
+import java.util.Arrays;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+
+
+// Plays a score by sending timestamped MIDI events to a synthesizer's Receiver.
+//
+// Each track of the score is compiled into lists of note-ons, one per beat (one loop of the score),
+// and each call to pump() sends, ahead of time, all the events that fall within
+// a lookahead window. The synthesizer then starts and stops the notes at the
+// microsecond given by their timestamp, so the audio timing no longer depends on
+// how precisely the calling thread is scheduled; pump() only has to be called
+// at least once per lookahead window.
+//
+// Time is measured in ticks, with TICKS_PER_BEAT ticks per beat,
+// so that the start of each note within its beat (see NoteStore) and its duration
+// (see Constant.tempsNoire, etc.) are numbers of ticks.
+// The tracks are merged with a k-way merge: a heap holds the tick of the next note-on
+// of each audible track, so sending an event costs O(log(number of tracks)),
+// and silent tracks and empty beats cost nothing.
+// When a note-on is sent, the matching note-off is pushed onto a priority queue
+// of pending note-offs, so a sustained note costs nothing until it ends.
+// When the score is edited during playback, only the lists of the beats that
+// changed are compiled again (see ScoreSnapshot.canBePatchedFrom()).
+public class PlaybackEngine {
+
+	// Offsets of notes within their beat, and durations in Constant (tempsNoire, etc.), are expressed in these ticks.
+	public static final int TICKS_PER_BEAT = Constant.tempsNoire;
+
+	private static final int NUM_CHANNELS = ScoreTrack.NUM_CHANNELS;
+
+	private final Synthesizer synthesizer;
+	private Receiver receiver = null;
+
+	// One loop of a compiled track, and where the next event to send is in it.
+	private static class TrackEvents {
+		// events[beat] holds the eventCounts[beat] note-ons of the beat,
+		// sorted by tick (as the notes of a beat are sorted by offset), for beats in [0,numBeats).
+		// Each note-on is packed in a long:
+		//    bits 63..32    tick, relative to the start of the loop
+		//    bits 23..8     duration, in ticks
+		//    bits 7..0      MIDI note number
+		long [][] events = new long[ 64 ][];
+		int [] eventCounts = new int[ 64 ];
+		int numEvents = 0; // in all the beats
+
+		// Absolute tick of the start of the loop that is being sent, and beat and index of the next event to send in it.
+		long loopStartTick = 0;
+		int nextBeat = 0;
+		int nextEvent = 0;
+	}
+
+	private TrackEvents [] tracks = new TrackEvents[ 0 ];
+	private int numBeats = 0; // of every track
+	private long lengthInTicks = 0;
+	private ScoreSnapshot compiledSnapshot = null;
+
+	// The next note-on of each audible track that has any, packed in a long:
+	//    bits 63..4     absolute tick
+	//    bits 3..0      track
+	private LongMinHeap heads = new LongMinHeap();
+
+	// Note-offs that have yet to be sent, packed in a long:
+	//    bits 63..28    absolute tick
+	//    bits 27..12    generation of the note (see below)
+	//    bits 11..8     MIDI channel
+	//    bits 7..0      MIDI note number
+	private LongMinHeap pendingNoteOffs = new LongMinHeap();
+	// Incremented each time a note is started on a given channel and pitch (at index channel*128+pitch).
+	// A pending note-off whose generation doesn't match belongs to a note
+	// that has already been cut short by a newer note on the same pitch, and is dropped.
+	private int [] generation = new int[ NUM_CHANNELS * 128 ];
+
+	// Program last sent on each channel, or -1 if none was sent since start().
+	private int [] programOfChannel = new int[ NUM_CHANNELS ];
+
+	private boolean isPlaying = false;
+	private long lookaheadInMicroseconds = Constant.PLAYBACK_LOOKAHEAD_IN_MILLISECONDS * 1000L;
+	private long microsecondsPerBeat = 150000;
+
+	// Maps ticks to the synthesizer's clock: tick ``anchorTick'' happens at ``anchorMicroseconds''.
+	private long anchorTick = 0;
+	private long anchorMicroseconds = 0;
+
+	// Events before this (absolute) tick have been sent.
+	private long scheduledUpToTick = 0;
+
+	// Absolute tick of the start of the loop being played (heard) now, and of the beat being played
+	// as of the last call to pump(). Like the cursor of MyCanvas.beatElapsed(), which is moved once per beat,
+	// a new loop starts at the first beat that is past the end of the score, even if the score was resized
+	// in the middle of the loop; the loop being sent ahead of time follows from it (see seek()).
+	private long loopStartTick = 0;
+	private long currentBeatTick = 0;
+
+	// For PerformanceMetrics
+	private long numMessagesSent = 0;
+
+	// Pitches (MIDI note numbers) of each channel for which a note-on has been sent without a matching note-off.
+	private long [] soundingLow = new long[ NUM_CHANNELS ], soundingHigh = new long[ NUM_CHANNELS ];
+	// Timestamp of the last note-on sent on each channel and pitch (at index channel*128+pitch).
+	private long [] noteOnTime = new long[ NUM_CHANNELS * 128 ];
+
+	public PlaybackEngine( Synthesizer synthesizer ) {
+		this.synthesizer = synthesizer;
+	}
+
+	public static long packNoteOn( long tick, int duration, int midiNoteNumber ) {
+		return ( tick << 32 ) | ( ( duration & 0xFFFF ) << 8 ) | ( midiNoteNumber & 0x7F );
+	}
+	public static long tickOf( long noteOn ) { return noteOn >>> 32; }
+	public static int durationOf( long noteOn ) { return ( (int)noteOn >>> 8 ) & 0xFFFF; }
+	public static int midiNoteNumberOf( long noteOn ) { return (int)noteOn & 0x7F; }
+
+	public synchronized void setLookaheadInMicroseconds( long micros ) {
+		lookaheadInMicroseconds = Math.max( 0, micros );
+	}
+
+	// Compiles the note-ons of one beat of a track of the score into tracks[track].events[beat].
+	private void compileBeat( ScoreSnapshot score, int track, int beat ) {
+		TrackEvents te = tracks[ track ];
+		int n = score.getNumNotesAtBeat( track, beat );
+		if ( n > 0 && ( te.events[ beat ] == null || te.events[ beat ].length < n ) )
+			te.events[ beat ] = new long[ n ];
+		long [] e = te.events[ beat ];
+		for ( int i = 0; i < n; ++i ) {
+			int note = score.getNote( track, beat, i );
+			e[i] = packNoteOn(
+				(long)beat * TICKS_PER_BEAT + NoteStore.offsetOf( note ),
+				NoteStore.durationOf( note ),
+				NoteStore.pitchOf( note ) + Score.midiNoteNumberOfLowestPitch
+			);
+		}
+		te.numEvents += n - te.eventCounts[ beat ];
+		te.eventCounts[ beat ] = n;
+	}
+
+	// Changes the number of compiled beats of every track, compiling those that are added.
+	private void setNumBeats( ScoreSnapshot score, int newNumBeats ) {
+		newNumBeats = Math.max( 0, newNumBeats );
+		for ( int t = 0; t < tracks.length; ++t ) {
+			TrackEvents te = tracks[t];
+			if ( newNumBeats > te.events.length ) {
+				int newLength = te.events.length;
+				while ( newLength < newNumBeats )
+					newLength *= 2;
+				te.events = Arrays.copyOf( te.events, newLength );
+				te.eventCounts = Arrays.copyOf( te.eventCounts, newLength );
+			}
+			for ( int beat = newNumBeats; beat < numBeats; ++beat ) {
+				te.numEvents -= te.eventCounts[ beat ];
+				te.eventCounts[ beat ] = 0;
+			}
+			for ( int beat = numBeats; beat < newNumBeats; ++beat )
+				compileBeat( score, t, beat );
+		}
+		numBeats = newNumBeats;
+		lengthInTicks = (long)numBeats * TICKS_PER_BEAT;
+	}
+
+	// Compiles one loop of every track of the score.
+	private void compile( ScoreSnapshot score ) {
+		compiledSnapshot = score;
+		setNumBeats( score, 0 );
+		if ( tracks.length != score.getNumTracks() ) {
+			TrackEvents [] newTracks = Arrays.copyOf( tracks, score.getNumTracks() );
+			for ( int t = tracks.length; t < newTracks.length; ++t )
+				newTracks[t] = new TrackEvents();
+			tracks = newTracks;
+		}
+		setNumBeats( score, score.numBeats );
+	}
+
+	// Compiles again only the beats that changed since the compiled snapshot,
+	// which must be one from which ``score'' can be patched (and so have the same tracks).
+	private void patch( ScoreSnapshot score ) {
+		int oldNumBeats = numBeats;
+		setNumBeats( score, score.numBeats );
+		for ( int i = score.getFirstChangeSince( compiledSnapshot ); i < score.getNumChanges(); ++i ) {
+			int beat = score.getChangedBeat( i );
+			if ( beat < Math.min( oldNumBeats, numBeats ) ) // beats that were just added are already up to date
+				compileBeat( score, score.getChangedTrack( i ), beat );
+		}
+		compiledSnapshot = score;
+	}
+
+	// Pushes the next note-on of the track onto ``heads'', wrapping around to the next loop if needed.
+	// The track must have at least one event.
+	private void pushHead( int track ) {
+		TrackEvents te = tracks[ track ];
+		// skip to the next beat that has an event left
+		while ( te.nextEvent >= te.eventCounts[ te.nextBeat ] ) {
+			te.nextEvent = 0;
+			if ( ++ te.nextBeat == numBeats ) {
+				te.nextBeat = 0;
+				te.loopStartTick += lengthInTicks;
+			}
+		}
+		long tick = te.loopStartTick + tickOf( te.events[ te.nextBeat ][ te.nextEvent ] );
+		heads.push( ( tick << 4 ) | track );
+	}
+
+	// Finds the event of each audible track to send next, given that everything before scheduledUpToTick has been sent.
+	private void seek() {
+		heads.clear();
+		if ( lengthInTicks == 0 )
+			return;
+		// the loop in which scheduledUpToTick is, which may follow the one being played
+		long tickInLoop = Math.max( 0, scheduledUpToTick - loopStartTick ) % lengthInTicks;
+		long loopStart = Math.max( loopStartTick, scheduledUpToTick - tickInLoop );
+		int beat = (int)( tickInLoop / TICKS_PER_BEAT );
+		for ( int t = 0; t < tracks.length; ++t ) {
+			TrackEvents te = tracks[t];
+			if ( te.numEvents == 0 || ! compiledSnapshot.isAudible( t ) )
+				continue;
+			te.loopStartTick = loopStart;
+			te.nextBeat = beat;
+			long [] e = te.events[ beat ];
+			int lo = 0, hi = te.eventCounts[ beat ];
+			while ( lo < hi ) {
+				int mid = ( lo + hi ) >>> 1;
+				if ( tickOf( e[mid] ) < tickInLoop ) lo = mid + 1;
+				else hi = mid;
+			}
+			te.nextEvent = lo;
+			pushHead( t );
+		}
+	}
+
+	// Moves the beat being played to the one starting closest to now (pump() is called at the start of each beat),
+	// starting a new loop at the first beat since the last call that is past the end of the score,
+	// as MyCanvas.beatElapsed() does with its cursor.
+	private void followCurrentBeat() {
+		long tick = getTickAtTime( synthesizer.getMicrosecondPosition() ) + TICKS_PER_BEAT / 2;
+		long newCurrentBeatTick = tick - tick % TICKS_PER_BEAT;
+		if ( newCurrentBeatTick <= currentBeatTick )
+			return;
+		long firstBeatPastTheEnd = Math.max( currentBeatTick + TICKS_PER_BEAT, loopStartTick + lengthInTicks );
+		if ( firstBeatPastTheEnd <= newCurrentBeatTick ) {
+			loopStartTick = firstBeatPastTheEnd;
+			if ( lengthInTicks > 0 )
+				loopStartTick += ( newCurrentBeatTick - loopStartTick ) / lengthInTicks * lengthInTicks;
+		}
+		currentBeatTick = newCurrentBeatTick;
+	}
+
+	private long getTimeOfTick( long tick ) {
+		return anchorMicroseconds + ( tick - anchorTick ) * microsecondsPerBeat / TICKS_PER_BEAT;
+	}
+	private long getTickAtTime( long micros ) {
+		return anchorTick + ( micros - anchorMicroseconds ) * TICKS_PER_BEAT / microsecondsPerBeat;
+	}
+
+	private boolean isSounding( int channel, int midiNoteNumber ) {
+		long w = midiNoteNumber < 64 ? soundingLow[ channel ] : soundingHigh[ channel ];
+		return ( w & ( 1L << midiNoteNumber ) ) != 0;
+	}
+	private void setSounding( int channel, int midiNoteNumber, boolean flag ) {
+		long bit = 1L << midiNoteNumber;
+		if ( midiNoteNumber < 64 ) soundingLow[ channel ] = flag ? ( soundingLow[ channel ] | bit ) : ( soundingLow[ channel ] & ~bit );
+		else soundingHigh[ channel ] = flag ? ( soundingHigh[ channel ] | bit ) : ( soundingHigh[ channel ] & ~bit );
+	}
+
+	private void send( int command, int channel, int data1, int data2, long timeStamp ) {
+		try {
+			ShortMessage message = new ShortMessage();
+			message.setMessage( command | channel, data1, data2 );
+			receiver.send( message, timeStamp );
+			numMessagesSent ++;
+		}
+		catch ( InvalidMidiDataException e ) {
+			e.printStackTrace();
+			return;
+		}
+		if ( command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF )
+			setSounding( channel, data1, command == ShortMessage.NOTE_ON );
+	}
+
+	private void sendNoteOn( long tick, int channel, int midiNoteNumber, int duration ) {
+		long timeStamp = getTimeOfTick( tick );
+		if ( isSounding( channel, midiNoteNumber ) )
+			// cut the previous note on this pitch short, so that this one is heard
+			send( ShortMessage.NOTE_OFF, channel, midiNoteNumber, 0, timeStamp );
+		int g = ++ generation[ channel * 128 + midiNoteNumber ] & 0xFFFF;
+		send( ShortMessage.NOTE_ON, channel, midiNoteNumber, Constant.midiVolume, timeStamp );
+		noteOnTime[ channel * 128 + midiNoteNumber ] = timeStamp;
+		pendingNoteOffs.push( ( ( tick + Math.max( 1, duration ) ) << 28 ) | ( g << 12 ) | ( channel << 8 ) | midiNoteNumber );
+	}
+
+	private void sendNoteOff( long pendingNoteOff ) {
+		int midiNoteNumber = (int)pendingNoteOff & 0x7F;
+		int channel = ( (int)pendingNoteOff >>> 8 ) & 0xF;
+		int g = ( (int)pendingNoteOff >>> 12 ) & 0xFFFF;
+		if ( g != ( generation[ channel * 128 + midiNoteNumber ] & 0xFFFF ) )
+			return; // superseded by a newer note on the same pitch
+		send( ShortMessage.NOTE_OFF, channel, midiNoteNumber, 0, getTimeOfTick( pendingNoteOff >>> 28 ) );
+	}
+
+	// Sends a program change on the channel of each track whose program isn't the one last sent there.
+	// (If several tracks share a channel, the last one wins.) It takes effect after the notes already sent,
+	// like the other changes made during playback.
+	private void sendProgramChanges( ScoreSnapshot score ) {
+		long time = getTimeOfTick( scheduledUpToTick );
+		for ( int t = 0; t < score.getNumTracks(); ++t ) {
+			int channel = score.getChannel( t ), program = score.getProgram( t );
+			if ( programOfChannel[ channel ] != program ) {
+				send( ShortMessage.PROGRAM_CHANGE, channel, program, 0, time );
+				programOfChannel[ channel ] = program;
+			}
+		}
+	}
+
+	// Sends a note-off for every note that was started, and forgets the pending ones.
+	// Notes that can already be heard are ended right away. The others still have their note-on
+	// queued in the synthesizer (up to the end of the lookahead window), and a note-off sent
+	// for right now would come before it, leaving the note stuck: so they are ended
+	// at their own note-off if it falls within the window, and at the end of the window otherwise.
+	private void silence() {
+		long now = synthesizer.getMicrosecondPosition();
+		for ( int c = 0; c < NUM_CHANNELS; ++c ) {
+			if ( ( soundingLow[c] | soundingHigh[c] ) == 0 )
+				continue;
+			for ( int p = 0; p < 128; ++p )
+				if ( isSounding( c, p ) && noteOnTime[ c * 128 + p ] <= now ) {
+					send( ShortMessage.NOTE_OFF, c, p, 0, -1 );
+					generation[ c * 128 + p ] ++; // so that its pending note-off is dropped
+				}
+		}
+		while ( ! pendingNoteOffs.isEmpty() && ( pendingNoteOffs.peek() >>> 28 ) < scheduledUpToTick )
+			sendNoteOff( pendingNoteOffs.pop() );
+		pendingNoteOffs.clear();
+		long endOfWindow = Math.max( now, getTimeOfTick( scheduledUpToTick ) );
+		for ( int c = 0; c < NUM_CHANNELS; ++c ) {
+			for ( int p = 0; p < 128; ++p ) {
+				if ( isSounding( c, p ) )
+					send( ShortMessage.NOTE_OFF, c, p, 0, endOfWindow );
+				generation[ c * 128 + p ] ++;
+			}
+		}
+	}
+
+	// Starts playing the score from the beginning of the given beat.
+	public synchronized void start( ScoreSnapshot score, int startBeat, long microsecondsPerBeat ) {
+		if ( synthesizer == null )
+			return;
+		try {
+			if ( receiver == null )
+				receiver = synthesizer.getReceiver();
+		}
+		catch ( MidiUnavailableException e ) {
+			e.printStackTrace();
+			return;
+		}
+		if ( isPlaying )
+			silence();
+		this.microsecondsPerBeat = Math.max( 1, microsecondsPerBeat );
+		anchorTick = (long)startBeat * TICKS_PER_BEAT;
+		anchorMicroseconds = synthesizer.getMicrosecondPosition();
+		scheduledUpToTick = anchorTick;
+		loopStartTick = 0;
+		currentBeatTick = anchorTick;
+		Arrays.fill( programOfChannel, -1 );
+		compile( score );
+		sendProgramChanges( score );
+		seek();
+		isPlaying = true;
+		pump( score );
+	}
+
+	public synchronized void stop() {
+		if ( ! isPlaying )
+			return;
+		isPlaying = false;
+		silence();
+	}
+
+	public synchronized boolean isPlaying() { return isPlaying; }
+
+	// Takes effect for the events that have not been sent yet.
+	public synchronized void setMicrosecondsPerBeat( long micros ) {
+		micros = Math.max( 1, micros );
+		if ( isPlaying ) {
+			anchorMicroseconds = getTimeOfTick( scheduledUpToTick );
+			anchorTick = scheduledUpToTick;
+		}
+		microsecondsPerBeat = micros;
+	}
+
+	// Sends all the events that fall within the lookahead window.
+	// Must be called at least once per window (or once per beat, if that is longer).
+	// If the snapshot differs from the one that was compiled, the beats that changed
+	// (or, failing that, all of them) are compiled again first, and the tracks whose program changed
+	// get a program change; notes that were already started still end according to their pending note-off.
+	public synchronized void pump( ScoreSnapshot score ) {
+		if ( ! isPlaying )
+			return;
+		boolean hasScoreChanged = score != compiledSnapshot;
+		if ( hasScoreChanged ) {
+			if ( score.canBePatchedFrom( compiledSnapshot ) )
+				patch( score );
+			else compile( score );
+		}
+		followCurrentBeat();
+		if ( hasScoreChanged ) {
+			sendProgramChanges( score );
+			seek();
+		}
+
+		long numMessagesSentBefore = numMessagesSent;
+		long window = Math.max( lookaheadInMicroseconds, 2 * microsecondsPerBeat );
+		long horizonTick = getTickAtTime( synthesizer.getMicrosecondPosition() + window );
+		while ( true ) {
+			long nextNoteOnTick = heads.isEmpty() ? Long.MAX_VALUE : heads.peek() >>> 4;
+			long nextNoteOffTick = pendingNoteOffs.isEmpty() ? Long.MAX_VALUE : pendingNoteOffs.peek() >>> 28;
+
+			// At equal ticks, note-offs go first, so that a note ending where another starts doesn't cut it.
+			if ( nextNoteOffTick < horizonTick && nextNoteOffTick <= nextNoteOnTick ) {
+				sendNoteOff( pendingNoteOffs.pop() );
+			}
+			else if ( nextNoteOnTick < horizonTick ) {
+				int t = (int)heads.pop() & 0xF;
+				TrackEvents te = tracks[t];
+				long event = te.events[ te.nextBeat ][ te.nextEvent++ ];
+				sendNoteOn( nextNoteOnTick, compiledSnapshot.getChannel( t ), midiNoteNumberOf( event ), durationOf( event ) );
+				pushHead( t );
+			}
+			else break;
+		}
+		if ( horizonTick > scheduledUpToTick )
+			scheduledUpToTick = horizonTick;
+		if ( heads.isEmpty() )
+			seek();
+		if ( PerformanceMetrics.isEnabled() )
+			PerformanceMetrics.midiMessagesPerPump.record( numMessagesSent - numMessagesSentBefore );
+	}
+
+}
+
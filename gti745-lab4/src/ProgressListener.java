@@ -0,0 +1,7 @@
+
+// Receives the progress of a long operation (such as reading or writing a file).
+public interface ProgressListener {
+	// ``total'' is -1 if it is not known in advance.
+	// Called on the thread doing the work.
+	void progressMade( long done, long total );
+}
@@ -0,0 +1,687 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/*
+   The octave:
+      pitch class     English name     French name
+           0             C             do
+           1             C#/Db         do diese / re bemol
+           2             D             re
+           3             D#/Eb         re diese / mi bemol
+           4             E             mi
+           5             F             fa
+           6             F#/Gb         fa diese / sol bemol
+           7             G             sol
+           8             G#/Ab         sol diese / la bemol
+           9             A             la
+          10             A#/Bb         la diese / si bemol
+          11             B             si
+           0             C             do
+
+   A grand piano keyboard has 88 keys:
+                              Note Name     MIDI note number     Pitch class
+      lowest key (1st key):       A0            21                     9
+      middle C:                   C4            60                     0
+      highest key (88th key):     C8           108                     0
+*/
+
+
+public class Score {
+	public static final int midiNoteNumberOfMiddleC = 60;
+
+	public int numPitches = 88;
+	public static final int pitchClassOfLowestPitch = 9; // 9==A==la
+	public static final int midiNoteNumberOfLowestPitch = 21;
+	public int numBeats = 128;
+	public static final int TICKS_PER_BEAT = PlaybackEngine.TICKS_PER_BEAT;
+
+	// Each track has its own notes, MIDI channel and instrument (see ScoreTrack).
+	// There is always at least one track; notes are drawn into the current one.
+	public static final int MAX_TRACKS = ScoreTrack.NUM_CHANNELS;
+	private ArrayList< ScoreTrack > tracks = new ArrayList< ScoreTrack >();
+	private int currentTrack = 0;
+
+	// Incremented by every modification of the notes, the tracks or the length of the score,
+	// so that clients can tell when data derived from the score is out of date.
+	public int version = 0;
+
+	// The score is owned by the event-dispatching thread, which alone reads and modifies it;
+	// other threads read the latest snapshot published by publish() (see ScoreSnapshot).
+	private final AtomicReference< ScoreSnapshot > snapshot = new AtomicReference< ScoreSnapshot >();
+	// Beats whose notes were modified since the last snapshot (possibly with duplicates),
+	// each packed with its track as ( track << 32 ) | beat,
+	// or null if there were too many of them to be worth tracking.
+	private static final int MAX_EDITED_BEATS = 1024;
+	private long [] editedBeats = new long[ 16 ];
+	private int numEditedBeats = 0;
+
+	// Off-screen image of the parts of the grid that don't change from frame to frame.
+	private CachedLayer backgroundLayer = new CachedLayer();
+	// Rectangles of the notes, gathered so that they can all be drawn with one call.
+	private float [] noteRects = new float[ 4 * 256 ];
+
+	public static final int numPitchesInOctave = 12;
+	public String [] namesOfPitchClasses;
+	public boolean [] pitchClassesInMajorScale;
+	public boolean [] pitchClassesToEmphasizeInMajorScale;
+
+	public Score() {
+		namesOfPitchClasses = new String[ numPitchesInOctave ];
+		namesOfPitchClasses[ 0] = "C";
+		namesOfPitchClasses[ 1] = "C#";
+		namesOfPitchClasses[ 2] = "D";
+		namesOfPitchClasses[ 3] = "D#";
+		namesOfPitchClasses[ 4] = "E";
+		namesOfPitchClasses[ 5] = "F";
+		namesOfPitchClasses[ 6] = "F#";
+		namesOfPitchClasses[ 7] = "G";
+		namesOfPitchClasses[ 8] = "G#";
+		namesOfPitchClasses[ 9] = "A";
+		namesOfPitchClasses[10] = "A#";
+		namesOfPitchClasses[11] = "B";
+
+		pitchClassesInMajorScale = new boolean[ numPitchesInOctave ];
+		pitchClassesInMajorScale[ 0] = true;
+		pitchClassesInMajorScale[ 1] = false;
+		pitchClassesInMajorScale[ 2] = true;
+		pitchClassesInMajorScale[ 3] = false;
+		pitchClassesInMajorScale[ 4] = true;
+		pitchClassesInMajorScale[ 5] = true;
+		pitchClassesInMajorScale[ 6] = false;
+		pitchClassesInMajorScale[ 7] = true;
+		pitchClassesInMajorScale[ 8] = false;
+		pitchClassesInMajorScale[ 9] = true;
+		pitchClassesInMajorScale[10] = false;
+		pitchClassesInMajorScale[11] = true;
+
+		pitchClassesToEmphasizeInMajorScale = new boolean[ numPitchesInOctave ];
+		pitchClassesToEmphasizeInMajorScale[ 0] = true;
+		pitchClassesToEmphasizeInMajorScale[ 1] = false;
+		pitchClassesToEmphasizeInMajorScale[ 2] = false;
+		pitchClassesToEmphasizeInMajorScale[ 3] = false;
+		pitchClassesToEmphasizeInMajorScale[ 4] = true;
+		pitchClassesToEmphasizeInMajorScale[ 5] = true;
+		pitchClassesToEmphasizeInMajorScale[ 6] = false;
+		pitchClassesToEmphasizeInMajorScale[ 7] = true;
+		pitchClassesToEmphasizeInMajorScale[ 8] = false;
+		pitchClassesToEmphasizeInMajorScale[ 9] = false;
+		pitchClassesToEmphasizeInMajorScale[10] = false;
+		pitchClassesToEmphasizeInMajorScale[11] = false;
+
+		tracks.add( new ScoreTrack( "Track 1", 0, numBeats, 0 ) );
+		snapshot.set( ScoreSnapshot.create( this ) );
+	}
+
+	public int getNumTracks() { return tracks.size(); }
+	public ScoreTrack getTrack( int index ) { return tracks.get( index ); }
+	public int getCurrentTrackIndex() { return currentTrack; }
+	public ScoreTrack getCurrentTrack() { return tracks.get( currentTrack ); }
+
+	// Only changes where notes are drawn, so the version doesn't change.
+	public void setCurrentTrack( int index ) {
+		if ( 0 <= index && index < tracks.size() )
+			currentTrack = index;
+	}
+
+	// Returns the index of the new track, or -1 if there are already MAX_TRACKS tracks.
+	// The new track gets a channel that no other track uses, if there is one.
+	public int addTrack() {
+		if ( tracks.size() == MAX_TRACKS )
+			return -1;
+		int channel = Math.max( 0, ScoreTrack.findFreeChannel( tracks ) );
+		tracks.add( new ScoreTrack( "Track " + ( tracks.size() + 1 ), channel, numBeats, tracks.size() ) );
+		editedBeats = null; // the next snapshot will be built from scratch
+		version ++;
+		return tracks.size() - 1;
+	}
+
+	// The last remaining track can't be removed.
+	public void removeTrack( int index ) {
+		if ( tracks.size() <= 1 || index < 0 || index >= tracks.size() )
+			return;
+		tracks.remove( index );
+		if ( currentTrack >= tracks.size() || currentTrack > index )
+			currentTrack --;
+		editedBeats = null;
+		version ++;
+	}
+
+	public void setTrackName( int track, String name ) {
+		tracks.get( track ).name = name;
+	}
+	public void setTrackChannel( int track, int channel ) {
+		tracks.get( track ).channel = channel;
+		version ++;
+	}
+	public void setTrackProgram( int track, int program ) {
+		tracks.get( track ).program = program;
+		version ++;
+	}
+	public void setTrackMuted( int track, boolean flag ) {
+		tracks.get( track ).isMuted = flag;
+		version ++;
+	}
+	public void setTrackSolo( int track, boolean flag ) {
+		tracks.get( track ).isSolo = flag;
+		version ++;
+	}
+
+	public boolean isAnyTrackSoloed() {
+		for ( ScoreTrack t : tracks )
+			if ( t.isSolo )
+				return true;
+		return false;
+	}
+
+	// Counts the notes of all the tracks (including those beyond numBeats).
+	public int getNumNotes() {
+		int n = 0;
+		for ( ScoreTrack t : tracks )
+			n += t.notes.size();
+		return n;
+	}
+
+	// Positions are given either as a beat, for notes that start on the beat,
+	// or as a tick (see PlaybackEngine.TICKS_PER_BEAT), for notes that may start between beats.
+	// A beat refers to the note that starts there, whereas a tick refers to the note
+	// that sounds there (i.e. whose span [start,start+duration) contains the tick),
+	// which is what the mouse points at whatever the snap.
+	// The following read and modify the current track.
+
+	public boolean isNoteAt( int beat, int indexOfPitch ) {
+		ScoreTrack t = getCurrentTrack();
+		// the occupancy rules out most cells without a lookup in the tree
+		return t.occupancy.isSet( beat, indexOfPitch ) && t.notes.contains( beat, 0, indexOfPitch );
+	}
+	public boolean isNoteAtTick( int tick, int indexOfPitch ) {
+		return isNoteDuringTicks( tick, 1, indexOfPitch );
+	}
+	// Returns true if a note sounds during any of the given number of ticks from the given tick,
+	// i.e. if a note added there would overlap one.
+	public boolean isNoteDuringTicks( int tick, int numTicks, int indexOfPitch ) {
+		return getCurrentTrack().notes.findNoteOverlapping( tick, tick + numTicks, indexOfPitch, TICKS_PER_BEAT ) >= 0;
+	}
+
+	// returns 0 if there is no note at the given cell
+	public int getNoteDuration( int beat, int indexOfPitch ) {
+		return getCurrentTrack().notes.getDuration( beat, 0, indexOfPitch );
+	}
+
+	public void setNote( int beat, int indexOfPitch, int duration ) {
+		setNote( currentTrack, beat, indexOfPitch, duration );
+	}
+	public void setNoteAtTick( int tick, int indexOfPitch, int duration ) {
+		setNoteAtTick( currentTrack, tick, indexOfPitch, duration );
+	}
+
+	public void removeNote( int beat, int indexOfPitch ) {
+		removeNote( currentTrack, beat, indexOfPitch );
+	}
+	public void removeNoteAtTick( int tick, int indexOfPitch ) {
+		removeNoteAtTick( currentTrack, tick, indexOfPitch );
+	}
+
+	private void recordEdit( int track, int beat ) {
+		if ( editedBeats == null )
+			return;
+		if ( numEditedBeats == MAX_EDITED_BEATS ) {
+			editedBeats = null; // the next snapshot will be built from scratch
+			return;
+		}
+		if ( numEditedBeats == editedBeats.length )
+			editedBeats = Arrays.copyOf( editedBeats, 2 * editedBeats.length );
+		editedBeats[ numEditedBeats++ ] = ( (long)track << 32 ) | beat;
+	}
+
+	public void setNote( int track, int beat, int indexOfPitch, int duration ) {
+		setNote( track, beat, 0, indexOfPitch, duration );
+	}
+	public void setNoteAtTick( int track, int tick, int indexOfPitch, int duration ) {
+		setNote( track, tick / TICKS_PER_BEAT, tick % TICKS_PER_BEAT, indexOfPitch, duration );
+	}
+
+	// ``offset'' is the number of ticks from the start of the beat to the start of the note.
+	public void setNote( int track, int beat, int offset, int indexOfPitch, int duration ) {
+		ScoreTrack t = tracks.get( track );
+		if ( t.notes.put( beat, offset, indexOfPitch, duration ) )
+			t.density.add( beat, indexOfPitch );
+		t.occupancy.set( beat, indexOfPitch );
+		recordEdit( track, beat );
+		version ++;
+	}
+
+	public void removeNote( int track, int beat, int indexOfPitch ) {
+		removeNote( track, beat, 0, indexOfPitch );
+	}
+	public void removeNoteAtTick( int track, int tick, int indexOfPitch ) {
+		int start = tracks.get( track ).notes.findNoteOverlapping( tick, tick + 1, indexOfPitch, TICKS_PER_BEAT );
+		if ( start >= 0 )
+			removeNote( track, start / TICKS_PER_BEAT, start % TICKS_PER_BEAT, indexOfPitch );
+	}
+
+	public void removeNote( int track, int beat, int offset, int indexOfPitch ) {
+		ScoreTrack t = tracks.get( track );
+		if ( t.notes.remove( beat, offset, indexOfPitch ) ) {
+			// other notes of the same pitch may still start within the beat
+			if ( ! t.notes.containsPitch( beat, indexOfPitch ) )
+				t.occupancy.clear( beat, indexOfPitch );
+			t.density.remove( beat, indexOfPitch );
+			recordEdit( track, beat );
+			version ++;
+		}
+	}
+
+	// Removes the notes of every track; the tracks themselves are kept.
+	public void clear() {
+		for ( ScoreTrack t : tracks ) {
+			t.notes.clear();
+			t.occupancy.clear();
+			t.density.clear();
+		}
+		editedBeats = null;
+		version ++;
+	}
+
+	// Makes the current state of the score visible to other threads, through getSnapshot().
+	// Must be called by the thread that modifies the score, after each batch of modifications.
+	// Does nothing if the score wasn't modified since the last call.
+	public ScoreSnapshot publish() {
+		ScoreSnapshot s = snapshot.get();
+		if ( s.version == version )
+			return s;
+		if ( editedBeats == null )
+			s = ScoreSnapshot.create( this );
+		else {
+			long [] beats = Arrays.copyOf( editedBeats, numEditedBeats );
+			Arrays.sort( beats );
+			int n = 0;
+			for ( int i = 0; i < beats.length; ++i )
+				if ( i == 0 || beats[i] != beats[i-1] )
+					beats[ n++ ] = beats[i];
+			s = s.derive( this, Arrays.copyOf( beats, n ) );
+		}
+		snapshot.set( s );
+		if ( editedBeats == null )
+			editedBeats = new long[ 16 ];
+		numEditedBeats = 0;
+		return s;
+	}
+
+	// Returns the latest published snapshot. Can be called from any thread.
+	public ScoreSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	// Changes the length of the score, in O(1) amortized time.
+	// Notes at or beyond the new end are kept, but hidden, ignored by playback
+	// and not saved, so that making the score longer again restores them.
+	public void setNumBeats( int numBeats ) {
+		if ( numBeats < 0 || numBeats == this.numBeats )
+			return;
+		for ( ScoreTrack t : tracks )
+			t.occupancy.ensureCapacity( numBeats );
+		this.numBeats = numBeats;
+		version ++;
+	}
+
+	// Returns a new score with the same length, tracks and notes,
+	// which can be handed to another thread while this one keeps being edited.
+	public Score copy() {
+		Score s = new Score();
+		s.numPitches = numPitches;
+		s.numBeats = numBeats;
+		for ( int i = 0; i < tracks.size(); ++i ) {
+			ScoreTrack from = tracks.get( i );
+			if ( i > 0 )
+				s.tracks.add( new ScoreTrack( from.name, from.channel, numBeats, i ) );
+			ScoreTrack to = s.tracks.get( i );
+			to.name = from.name;
+			to.channel = from.channel;
+			to.program = from.program;
+			to.isMuted = from.isMuted;
+			to.isSolo = from.isSolo;
+			to.red = from.red;
+			to.green = from.green;
+			to.blue = from.blue;
+			NoteStore.Cursor c = from.notes.cursor();
+			while ( c.next() )
+				s.setNote( i, c.beat(), c.offset(), c.pitch(), c.duration() );
+		}
+		s.currentTrack = currentTrack;
+		s.editedBeats = null; // its first snapshot only has one track
+		return s;
+	}
+
+	// returns -1 if out of bounds
+	public int getMidiNoteNumberForMouseY( GraphicsWrapper gw, int mouse_y ) {
+		float y = gw.convertPixelsToWorldSpaceUnitsY( mouse_y );
+		int indexOfPitch = (int)(-y);
+		if ( 0 <= indexOfPitch && indexOfPitch < numPitches )
+			return indexOfPitch + midiNoteNumberOfLowestPitch;
+		return -1;
+	}
+
+	// returns -1 if out of bounds
+	public int getBeatForMouseX( GraphicsWrapper gw, int mouse_x ) {
+		float x = gw.convertPixelsToWorldSpaceUnitsX( mouse_x );
+		int indexOfBeat = (int)x;
+		if ( 0 <= indexOfBeat && indexOfBeat < numBeats )
+			return indexOfBeat;
+		return -1;
+	}
+
+	// The subdivisions of the beat to which notes are snapped when they are drawn with the mouse,
+	// from the coarsest to the finest, and the width of a beat, in pixels, from which each one is used,
+	// so that the closer one zooms in, the finer the grid (see getSnapInTicks()).
+	// Each subdivision must divide TICKS_PER_BEAT.
+	public int [] snapSubdivisions = { 1, 2, 4, 8, 16 };
+	public float [] snapMinPixelsPerBeat = { 0, 64, 128, 256, 512 };
+
+	// Returns the step of the grid to which the mouse snaps at the current zoom, in ticks.
+	public int getSnapInTicks( GraphicsWrapper gw ) {
+		float pixelsPerBeat = 1 / gw.getScaleFactorInWorldSpaceUnitsPerPixel();
+		int i = snapSubdivisions.length - 1;
+		while ( i > 0 && pixelsPerBeat < snapMinPixelsPerBeat[i] )
+			i --;
+		return TICKS_PER_BEAT / snapSubdivisions[i];
+	}
+
+	// Returns the tick under the mouse, rounded down to a multiple of ``snapInTicks'',
+	// or -1 if out of bounds.
+	public int getTickForMouseX( GraphicsWrapper gw, int mouse_x, int snapInTicks ) {
+		float x = gw.convertPixelsToWorldSpaceUnitsX( mouse_x );
+		int beat = (int)x; // as in getBeatForMouseX()
+		if ( beat < 0 || beat >= numBeats )
+			return -1;
+		int offset = Math.max( 0, Math.min( TICKS_PER_BEAT - 1, (int)( ( x - beat ) * TICKS_PER_BEAT ) ) );
+		offset -= offset % Math.max( 1, snapInTicks );
+		return beat * TICKS_PER_BEAT + offset;
+	}
+
+	// Returns { minBeat, maxBeat, minPitch, maxPitch } (the maxima being exclusive)
+	// covering the part of the score that is visible in the window.
+	private int [] getVisibleRange( GraphicsWrapper gw ) {
+		AlignedRectangle2D visible = gw.getVisibleRectangleInWorldSpaceUnits();
+		return new int[] {
+			Math.max( 0, (int)Math.floor( visible.getMin().x() ) ),
+			Math.min( numBeats, (int)Math.ceil( visible.getMax().x() ) ),
+			Math.max( 0, (int)Math.floor( -visible.getMax().y() ) - 1 ),
+			Math.min( numPitches, (int)Math.ceil( -visible.getMin().y() ) )
+		};
+	}
+
+	// Draws the pitch stripes and the bar lines (every 4 beats).
+	// These only depend on the camera and on highlightMajorCScale,
+	// so draw() renders them once into ``backgroundLayer'' and reuses the image.
+	// When zoomed out (see drawDensity()), bar lines are drawn every 4 blocks
+	// instead of every 4 beats, and one pixel wide, so they stay apart.
+	private void drawBackground( GraphicsWrapper gw, boolean highlightMajorCScale ) {
+		int [] range = getVisibleRange( gw );
+		int minBeat = range[0], maxBeat = range[1], minPitch = range[2], maxPitch = range[3];
+		if ( minBeat >= maxBeat || minPitch >= maxPitch )
+			return;
+		float x0 = minBeat, width = maxBeat - minBeat;
+
+		for ( int y = minPitch; y < maxPitch; y++ )
+			drawPitchStripe( gw, y, highlightMajorCScale, x0, width );
+
+		gw.setColor( 0.6f, 0.6f, 0.6f );
+		float scale = gw.getScaleFactorInWorldSpaceUnitsPerPixel();
+		int level = DensityMipmap.getLevelForScale( scale );
+		int step = getBeatsPerBarLine( level );
+		for ( int x = ( minBeat + step - 1 ) / step * step; x < maxBeat; x += step )
+			fillBarLine( gw, x, -maxPitch, maxPitch - minPitch, level, scale );
+	}
+
+	// Bar lines are drawn every 4 blocks of the level of detail (every 4 beats at level 0),
+	// one pixel wide when zoomed out.
+	private static int getBeatsPerBarLine( int level ) {
+		return 4 * DensityMipmap.getBlockSize( level );
+	}
+	private static void fillBarLine( GraphicsWrapper gw, int beat, float y, float height, int level, float scale ) {
+		float lineWidth = level == 0 ? 0.1f : scale;
+		gw.fillRect( beat+0.5f-lineWidth/2, y, lineWidth, height );
+	}
+
+	private void drawPitchStripe( GraphicsWrapper gw, int y, boolean highlightMajorCScale, float x0, float width ) {
+		int pitchClass = ( y + pitchClassOfLowestPitch ) % numPitchesInOctave;
+		int midiNoteNumber = y + midiNoteNumberOfLowestPitch;
+		if ( midiNoteNumber == midiNoteNumberOfMiddleC ) {
+			gw.setColor( 1, 1, 1 );
+			gw.fillRect( x0, -y-0.7f, width, 0.4f );
+		}
+		else if ( pitchClass == 0 && highlightMajorCScale ) {
+			gw.setColor( 1, 1, 1 );
+			gw.fillRect( x0, -y-0.6f, width, 0.2f );
+		}
+		else if ( pitchClassesToEmphasizeInMajorScale[ pitchClass ] && highlightMajorCScale ) {
+			gw.setColor( 0.6f, 0.6f, 0.6f );
+			gw.fillRect( x0, -y-0.6f, width, 0.2f );
+		}
+		else if ( pitchClassesInMajorScale[ pitchClass ] || ! highlightMajorCScale ) {
+			gw.setColor( 0.6f, 0.6f, 0.6f );
+			gw.fillRect( x0, -y-0.55f, width, 0.1f );
+		}
+	}
+
+	public void draw(
+		GraphicsWrapper gw,
+		boolean highlightMajorCScale,
+		int midiNoteNumber1ToHilite,
+		int beat1ToHilite,
+		int beat2ToHilite
+	) {
+		// Only visit the rows, beats and notes that fall inside the window,
+		// so that the cost of drawing does not depend on the length of the score.
+		int [] range = getVisibleRange( gw );
+		int minBeat = range[0], maxBeat = range[1], minPitch = range[2], maxPitch = range[3];
+		if ( minBeat >= maxBeat || minPitch >= maxPitch )
+			return;
+		float x0 = minBeat, width = maxBeat - minBeat;
+		float y0 = -maxPitch, height = maxPitch - minPitch;
+		boolean isMeasured = PerformanceMetrics.isEnabled();
+		long startTime = isMeasured ? System.nanoTime() : 0;
+
+		// The mouse cursor's row is drawn underneath the stripes.
+		int y = midiNoteNumber1ToHilite - midiNoteNumberOfLowestPitch;
+		if ( minPitch <= y && y < maxPitch ) {
+			gw.setColor( 0, 1, 1 );
+			gw.fillRect( x0, -y-0.8f, width, 0.6f );
+		}
+
+		long contentKey = ( (long)numBeats << 32 ) | ( numPitches << 1 ) | ( highlightMajorCScale ? 1 : 0 );
+		GraphicsWrapper layerGW = backgroundLayer.beginUpdate( gw, contentKey );
+		if ( layerGW != null ) {
+			drawBackground( layerGW, highlightMajorCScale );
+			backgroundLayer.endUpdate();
+		}
+		backgroundLayer.draw( gw );
+		gw.setCoordinateSystemToWorldSpaceUnits();
+		if ( isMeasured ) {
+			long time = System.nanoTime();
+			PerformanceMetrics.backgroundTime.record( time - startTime );
+			startTime = time;
+		}
+
+		float scale = gw.getScaleFactorInWorldSpaceUnitsPerPixel();
+		int level = DensityMipmap.getLevelForScale( scale );
+		int x = beat1ToHilite;
+		if ( minBeat <= x && x < maxBeat ) { // mouse cursor
+			gw.setColor( 0, 1, 1 );
+			gw.fillRect( x+0.2f, y0, 0.6f, height );
+			if ( x % getBeatsPerBarLine( level ) == 0 ) {
+				// restore the bar line that was covered
+				gw.setColor( 0.6f, 0.6f, 0.6f );
+				fillBarLine( gw, x, y0, height, level, scale );
+			}
+		}
+		x = beat2ToHilite;
+		if ( minBeat <= x && x < maxBeat ) { // time cursor
+			gw.setColor( 1, 0, 0 );
+			gw.fillRect( x+0.45f, y0, 0.1f, height );
+		}
+		if ( isMeasured ) {
+			long time = System.nanoTime();
+			PerformanceMetrics.cursorTime.record( time - startTime );
+			startTime = time;
+		}
+
+		// Tracks are drawn one over the other, each in its own color, with the current track on top.
+		boolean isAnyTrackSoloed = isAnyTrackSoloed();
+		for ( int k = 0; k < tracks.size(); ++k ) {
+			int index = k < currentTrack ? k : ( k == tracks.size() - 1 ? currentTrack : k + 1 );
+			ScoreTrack track = tracks.get( index );
+			// tracks that can't be heard are drawn faded
+			float fade = track.isAudible( isAnyTrackSoloed ) ? 1 : 0.35f;
+			if ( level > 0 )
+				drawDensity( gw, track, fade, level, minBeat, maxBeat, minPitch, maxPitch );
+			else
+				drawNotes( gw, track, fade, minBeat, maxBeat, minPitch, maxPitch );
+		}
+		if ( isMeasured )
+			PerformanceMetrics.notesTime.record( System.nanoTime() - startTime );
+	}
+
+	private static int gcd( int a, int b ) {
+		while ( b != 0 ) {
+			int r = a % b;
+			a = b;
+			b = r;
+		}
+		return a;
+	}
+
+	// Sets the color of the track, mixed with white (i.e. the color at ``weight'' 0).
+	private static void setTrackColor( GraphicsWrapper gw, ScoreTrack track, float weight ) {
+		gw.setColor( 1 - weight * ( 1 - track.red ), 1 - weight * ( 1 - track.green ), 1 - weight * ( 1 - track.blue ) );
+	}
+
+	// A note that starts on a beat is drawn in the middle of the beat's cell.
+	// A note that starts between beats is drawn in the same way, in the cell of the finest
+	// subdivision of the beat on which it starts, so that notes on a grid never overlap.
+	private void drawNotes( GraphicsWrapper gw, ScoreTrack track, float fade, int minBeat, int maxBeat, int minPitch, int maxPitch ) {
+		int numNoteRects = 0;
+		NoteStore.Cursor c = track.notes.cursor( minBeat, maxBeat );
+		while ( c.next() ) {
+			int y = c.pitch();
+			if ( minPitch <= y && y < maxPitch ) {
+				if ( 4 * numNoteRects == noteRects.length )
+					noteRects = Arrays.copyOf( noteRects, 2 * noteRects.length );
+				int i = 4 * numNoteRects++;
+				int offset = c.offset();
+				if ( offset == 0 ) {
+					noteRects[i] = c.beat()+0.3f;
+					noteRects[i+2] = 0.4f;
+				}
+				else {
+					// the width of the cell, as a fraction of a beat
+					float w = gcd( offset, TICKS_PER_BEAT ) / (float)TICKS_PER_BEAT;
+					noteRects[i] = c.beat() + offset / (float)TICKS_PER_BEAT + 0.3f * w;
+					noteRects[i+2] = 0.4f * w;
+				}
+				noteRects[i+1] = -y-0.7f;
+				noteRects[i+3] = 0.4f;
+			}
+		}
+		setTrackColor( gw, track, fade );
+		gw.fillRects( noteRects, numNoteRects );
+	}
+
+	// Counts of notes per block at or above which each shade of drawDensity() is used,
+	// and the corresponding weights of the color of the track, from lightest to darkest
+	// (for the black of the first track, these give grays of 0.3, 0.2, 0.1 and 0).
+	private static final int [] DENSITY_THRESHOLDS = { 1, 2, 4, 8 };
+	private static final float [] DENSITY_WEIGHTS = { 0.7f, 0.8f, 0.9f, 1.0f };
+	private float [][] densityRects = new float[ DENSITY_THRESHOLDS.length ][ 4 * 256 ];
+	private int [] numDensityRects = new int[ DENSITY_THRESHOLDS.length ];
+	// The counts of the notes per block of the last column, when it extends beyond the end
+	private int [] countOfPartialBlock = new int[ PitchOccupancy.MAX_PITCHES ];
+
+	// Draws the notes of a track when zoomed out so far that a cell is smaller than a pixel:
+	// each block of the given level of the track's ``density'' that contains notes is filled
+	// with a shade of the track's color that depends on how many it contains.
+	// The cost depends on the number of blocks in the window (i.e. on its size in pixels),
+	// not on the number of notes or the length of the score.
+	private void drawDensity(
+		GraphicsWrapper gw, ScoreTrack track, float fade,
+		int level, int minBeat, int maxBeat, int minPitch, int maxPitch
+	) {
+		DensityMipmap density = track.density;
+		int blockSize = DensityMipmap.getBlockSize( level );
+		int [] numRects = numDensityRects;
+		Arrays.fill( numRects, 0 );
+		for ( int bx = minBeat >> level; bx <= ( maxBeat - 1 ) >> level; ++bx ) {
+			int beat0 = bx << level;
+			float width = Math.min( blockSize, numBeats - beat0 );
+			// The last block may also count notes hidden beyond the end (see setNumBeats()),
+			// so the notes of its column are counted again, up to the end.
+			boolean isPartialBlock = beat0 + blockSize > numBeats;
+			if ( isPartialBlock ) {
+				Arrays.fill( countOfPartialBlock, 0, ( PitchOccupancy.MAX_PITCHES + blockSize - 1 ) >> level, 0 );
+				NoteStore.Cursor c = track.notes.cursor( beat0, numBeats );
+				while ( c.next() )
+					countOfPartialBlock[ c.pitch() >> level ] ++;
+			}
+			for ( int by = minPitch >> level; by <= ( maxPitch - 1 ) >> level; ++by ) {
+				int pitch0 = by << level;
+				int pitch1 = Math.min( pitch0 + blockSize, numPitches );
+				int count = isPartialBlock ? countOfPartialBlock[ by ] : density.getCount( level, bx, by );
+				if ( count == 0 )
+					continue;
+				int shade = DENSITY_THRESHOLDS.length - 1;
+				while ( count < DENSITY_THRESHOLDS[ shade ] )
+					shade --;
+				float [] rects = densityRects[ shade ];
+				if ( 4 * numRects[ shade ] == rects.length )
+					densityRects[ shade ] = rects = Arrays.copyOf( rects, 2 * rects.length );
+				int i = 4 * numRects[ shade ]++;
+				rects[i] = beat0;
+				rects[i+1] = -pitch1;
+				rects[i+2] = width;
+				rects[i+3] = pitch1 - pitch0;
+			}
+		}
+		for ( int shade = 0; shade < DENSITY_THRESHOLDS.length; ++shade ) {
+			if ( numRects[ shade ] == 0 )
+				continue;
+			setTrackColor( gw, track, fade * DENSITY_WEIGHTS[ shade ] );
+			gw.fillRects( densityRects[ shade ], numRects[ shade ] );
+		}
+	}
+
+	// Returns the pixels covered by the column of the given beat
+	// (including the cursors drawn in it), or null if the beat is out of range.
+	public Rectangle getBeatColumnInPixels( GraphicsWrapper gw, int beat ) {
+		if ( beat < 0 || beat >= numBeats )
+			return null;
+		int x0 = gw.convertWorldSpaceUnitsToPixelsX( beat ) - 1;
+		int x1 = gw.convertWorldSpaceUnitsToPixelsX( beat+1 ) + 1;
+		int y0 = gw.convertWorldSpaceUnitsToPixelsY( -numPitches ) - 1;
+		int y1 = gw.convertWorldSpaceUnitsToPixelsY( 0 ) + 1;
+		return new Rectangle( x0, y0, x1-x0, y1-y0 );
+	}
+
+	// Returns the pixels covered by the row of the given pitch,
+	// or null if the pitch is out of range.
+	public Rectangle getPitchRowInPixels( GraphicsWrapper gw, int midiNoteNumber ) {
+		int y = midiNoteNumber - midiNoteNumberOfLowestPitch;
+		if ( y < 0 || y >= numPitches )
+			return null;
+		int x0 = gw.convertWorldSpaceUnitsToPixelsX( 0 ) - 1;
+		int x1 = gw.convertWorldSpaceUnitsToPixelsX( numBeats ) + 1;
+		int y0 = gw.convertWorldSpaceUnitsToPixelsY( -y-1 ) - 1;
+		int y1 = gw.convertWorldSpaceUnitsToPixelsY( -y ) + 1;
+		return new Rectangle( x0, y0, x1-x0, y1-y0 );
+	}
+
+	public AlignedRectangle2D getBoundingRectangle() {
+		return new AlignedRectangle2D(
+			new Point2D(0,-numPitches),
+			new Point2D(numBeats,0)
+		);
+	}
+
+}
@@ -0,0 +1,195 @@
+import java.io.File;
+import java.io.IOException;
+
+import javax.swing.SwingUtilities;
+
+
+// Saves and loads scores in the background (see TaskExecutors), so that the Event Dispatch Thread
+// (and hence the canvas and the playback cursor) never waits on the disk.
+//
+// save() must be called on the Event Dispatch Thread: it takes a copy of the score there,
+// so the user can keep editing while the copy is being written.
+// load() parses into a new score, which is only handed to the listener once complete,
+// so whoever swaps it in never exposes a half-loaded score.
+// Operations run one at a time, in the order they were requested.
+// The listener is always called on the Event Dispatch Thread.
+public class ScorePersistence {
+
+	public interface Listener {
+		// ``fraction'' is in [0,1], or -1 if unknown.
+		void persistenceProgress( String description, double fraction );
+		// ``error'' is null on success.
+		void saveCompleted( File file, IOException error );
+		// ``score'' is null if ``error'' isn't.
+		void loadCompleted( File file, Score score, LegacyBeatzParser legacyParser, IOException error );
+		// ``microsecondsPerBeat'' is -1 if the file doesn't give a tempo.
+		void midiImportCompleted( File file, Score score, long microsecondsPerBeat, IOException error );
+	}
+
+	private final Listener listener;
+	private final TaskExecutors.SerialExecutor executor = TaskExecutors.newSerialExecutor();
+
+	public ScorePersistence( Listener l ) {
+		listener = l;
+	}
+
+	// Drops the operations that haven't started yet (their listener is never called),
+	// and returns how many there were.
+	public int cancelPending() {
+		return executor.cancelPending();
+	}
+
+	// Forwards progress to the listener, but only when the displayed percentage changes,
+	// so that the Event Dispatch Thread isn't flooded with updates.
+	private class ProgressForwarder implements ProgressListener {
+		private final String description;
+		private int lastPercent = -2;
+		public ProgressForwarder( String description ) {
+			this.description = description;
+		}
+		public void progressMade( long done, long total ) {
+			final int percent = total <= 0 ? -1 : (int)( Math.min( done, total ) * 100 / total );
+			if ( percent == lastPercent )
+				return;
+			lastPercent = percent;
+			SwingUtilities.invokeLater( new Runnable() {
+				public void run() {
+					listener.persistenceProgress( description, percent < 0 ? -1 : percent / 100.0 );
+				}
+			} );
+		}
+	}
+
+	public void save( Score score, final File file ) {
+		final Score snapshot = score.copy();
+		final ProgressForwarder progress = new ProgressForwarder( "Saving " + file.getName() );
+		progress.progressMade( 0, 1 );
+		executor.execute( new Runnable() {
+			public void run() {
+				IOException error = null;
+				try {
+					BeatzFormat.write( snapshot, file, progress );
+				}
+				catch ( IOException e ) {
+					error = e;
+				}
+				final IOException e = error;
+				SwingUtilities.invokeLater( new Runnable() {
+					public void run() {
+						listener.saveCompleted( file, e );
+					}
+				} );
+			}
+		} );
+	}
+
+	// Exports a copy of the score as a Standard MIDI File; completion is reported to saveCompleted().
+	public void exportMidi( Score score, final long microsecondsPerBeat, final int fileType, final File file ) {
+		final Score snapshot = score.copy();
+		listener.persistenceProgress( "Exporting " + file.getName(), -1 );
+		executor.execute( new Runnable() {
+			public void run() {
+				IOException error = null;
+				try {
+					MidiFileConverter.write( snapshot, microsecondsPerBeat, fileType, file );
+				}
+				catch ( IOException e ) {
+					error = e;
+				}
+				catch ( RuntimeException e ) {
+					// still report the failure (e.g. a bug), so that the status line doesn't stay as it is
+					e.printStackTrace();
+					error = new IOException( e );
+				}
+				final IOException e = error;
+				SwingUtilities.invokeLater( new Runnable() {
+					public void run() {
+						listener.saveCompleted( file, e );
+					}
+				} );
+			}
+		} );
+	}
+
+	// Renders a copy of the score to a WAV file (see OfflineRenderer); completion is reported to saveCompleted().
+	public void renderWav( Score score, final long microsecondsPerBeat, final File file ) {
+		final Score snapshot = score.copy();
+		listener.persistenceProgress( "Rendering " + file.getName(), -1 );
+		executor.execute( new Runnable() {
+			public void run() {
+				IOException error = null;
+				try {
+					OfflineRenderer renderer = new OfflineRenderer();
+					renderer.render( snapshot, microsecondsPerBeat, file );
+					System.out.println( "Rendered " + file.getName() + ": " + renderer.getSummary() );
+				}
+				catch ( IOException e ) {
+					error = e;
+				}
+				catch ( RuntimeException e ) {
+					// still report the failure (e.g. a bug), so that the status line doesn't stay as it is
+					e.printStackTrace();
+					error = new IOException( e );
+				}
+				final IOException e = error;
+				SwingUtilities.invokeLater( new Runnable() {
+					public void run() {
+						listener.saveCompleted( file, e );
+					}
+				} );
+			}
+		} );
+	}
+
+	public void importMidi( final File file ) {
+		listener.persistenceProgress( "Importing " + file.getName(), -1 );
+		executor.execute( new Runnable() {
+			public void run() {
+				Score score = new Score();
+				long microsecondsPerBeat = -1;
+				IOException error = null;
+				try {
+					microsecondsPerBeat = MidiFileConverter.read( file, score );
+				}
+				catch ( IOException e ) {
+					error = e;
+				}
+				final Score s = error == null ? score : null;
+				final long m = microsecondsPerBeat;
+				final IOException e = error;
+				SwingUtilities.invokeLater( new Runnable() {
+					public void run() {
+						listener.midiImportCompleted( file, s, m, e );
+					}
+				} );
+			}
+		} );
+	}
+
+	public void load( final File file ) {
+		final ProgressForwarder progress = new ProgressForwarder( "Loading " + file.getName() );
+		progress.progressMade( 0, 1 );
+		executor.execute( new Runnable() {
+			public void run() {
+				LegacyBeatzParser legacyParser = new LegacyBeatzParser();
+				Score score = null;
+				IOException error = null;
+				try {
+					score = BeatzFormat.read( file, legacyParser, progress );
+				}
+				catch ( IOException e ) {
+					error = e;
+				}
+				final Score s = score;
+				final LegacyBeatzParser p = legacyParser;
+				final IOException e = error;
+				SwingUtilities.invokeLater( new Runnable() {
+					public void run() {
+						listener.loadCompleted( file, s, p, e );
+					}
+				} );
+			}
+		} );
+	}
+
+}
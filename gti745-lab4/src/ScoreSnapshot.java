@@ -0,0 +1,271 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// An immutable copy of the tracks, notes and length of a Score, as of a given version,
+// which threads other than the event-dispatching thread (e.g. the beat thread,
+// which drives the PlaybackEngine) can read without any locking.
+//
+// The EDT owns the Score and is the only thread that modifies it.
+// After each batch of edits, it calls Score.publish(), which builds the next
+// snapshot and makes it visible through an AtomicReference (see Score.getSnapshot()).
+//
+// The notes of each track are stored as one row of packed ints per beat (see NoteStore.pack()),
+// in the same order as in NoteStore, with the rows grouped in chunks of BEATS_PER_CHUNK beats.
+// A new snapshot shares with the previous one every chunk in which no beat changed,
+// so publishing a single edit copies one chunk (and the arrays of chunks), not the whole score.
+//
+// Snapshots derived from one another also share a log of the beats that changed,
+// so that data derived from a snapshot (e.g. the PlaybackEngine's compiled events)
+// can be brought up to date by redoing only the beats that changed since then,
+// even if the client missed some of the intermediate snapshots (see canBePatchedFrom()).
+// The log is append-only: a snapshot only reads the first logLength entries,
+// which were written before it was published.
+// Adding or removing a track starts over from scratch (see Score.addTrack()).
+public final class ScoreSnapshot {
+
+	public static final int BEATS_PER_CHUNK = 64;
+	// Beyond this many entries, a new log is started.
+	private static final int MAX_LOG_LENGTH = 4096;
+
+	private static final AtomicLong nextSerial = new AtomicLong();
+
+	public final int version;
+	public final int numBeats;
+	public final int numPitches;
+
+	// Settings of each track
+	private final int [] channels;
+	private final int [] programs;
+	private final boolean [] isAudible;
+
+	// chunks[ track ][ beat / BEATS_PER_CHUNK ][ beat % BEATS_PER_CHUNK ] is the row of the beat,
+	// or null if it has no notes (a whole chunk may also be null).
+	// Rows and chunks are never modified once the snapshot is built.
+	private final int [][][][] chunks;
+	private final int numNotes;
+
+	// Unique to each snapshot, and increasing.
+	private final long serial;
+	// Serial of the snapshot that was built from scratch and from which this one was derived.
+	private final long origin;
+	// The log: entry i says that the beat logKeys[i] (packed as ( track << 32 ) | beat)
+	// changed in the snapshot with serial logSerials[i].
+	// It covers every change made after the snapshot with serial ``base''.
+	private final long base;
+	private final long [] logSerials;
+	private final long [] logKeys;
+	private final int logLength;
+
+	private ScoreSnapshot(
+		Score score, int [][][][] chunks, int numNotes, long serial, long origin,
+		long base, long [] logSerials, long [] logKeys, int logLength
+	) {
+		this.version = score.version;
+		this.numBeats = score.numBeats;
+		this.numPitches = score.numPitches;
+		int numTracks = score.getNumTracks();
+		channels = new int[ numTracks ];
+		programs = new int[ numTracks ];
+		isAudible = new boolean[ numTracks ];
+		boolean isAnyTrackSoloed = score.isAnyTrackSoloed();
+		for ( int t = 0; t < numTracks; ++t ) {
+			ScoreTrack track = score.getTrack( t );
+			channels[t] = track.channel;
+			programs[t] = track.program;
+			isAudible[t] = track.isAudible( isAnyTrackSoloed );
+		}
+		this.chunks = chunks;
+		this.numNotes = numNotes;
+		this.serial = serial;
+		this.origin = origin;
+		this.base = base;
+		this.logSerials = logSerials;
+		this.logKeys = logKeys;
+		this.logLength = logLength;
+	}
+
+	private static int rowLength( int [] row ) {
+		return row == null ? 0 : row.length;
+	}
+
+	// Builds a snapshot of all the notes of the score (including those beyond its end).
+	static ScoreSnapshot create( Score score ) {
+		int [][][][] chunks = new int[ score.getNumTracks() ][][][];
+		for ( int t = 0; t < chunks.length; ++t ) {
+			NoteStore notes = score.getTrack( t ).notes;
+			int [][][] c = new int[ 0 ][][];
+			for ( int beat = notes.nextOccupiedBeat( 0 ); beat >= 0; beat = notes.nextOccupiedBeat( beat + 1 ) ) {
+				int i = beat / BEATS_PER_CHUNK;
+				if ( i >= c.length )
+					c = Arrays.copyOf( c, Math.max( i + 1, 2 * c.length ) );
+				if ( c[i] == null )
+					c[i] = new int[ BEATS_PER_CHUNK ][];
+				c[i][ beat % BEATS_PER_CHUNK ] = notes.copyNotesAtBeat( beat );
+			}
+			chunks[t] = c;
+		}
+		long serial = nextSerial.incrementAndGet();
+		return new ScoreSnapshot( score, chunks, score.getNumNotes(), serial, serial, serial, new long[ 16 ], new long[ 16 ], 0 );
+	}
+
+	// Builds the next snapshot from this one, given the beats (sorted, without duplicates,
+	// packed as ( track << 32 ) | beat) whose notes were modified in the score since this one was built.
+	// The score must have the same tracks as when this one was built.
+	// Must only be called on the latest snapshot derived from a given one
+	// (as Score.publish() does), since the log is shared.
+	ScoreSnapshot derive( Score score, long [] changedBeats ) {
+		int [][][][] newChunks = chunks.clone();
+		int newNumNotes = numNotes;
+		int copiedTrack = -1, copiedChunk = -1;
+		for ( long key : changedBeats ) {
+			int t = (int)( key >>> 32 ), beat = (int)key;
+			int i = beat / BEATS_PER_CHUNK;
+			if ( t != copiedTrack ) {
+				// copy on write; since the beats are sorted, each track and chunk is copied at most once
+				newChunks[t] = newChunks[t].clone();
+				copiedTrack = t;
+				copiedChunk = -1;
+			}
+			if ( i >= newChunks[t].length )
+				newChunks[t] = Arrays.copyOf( newChunks[t], Math.max( i + 1, 2 * newChunks[t].length ) );
+			int [][][] c = newChunks[t];
+			if ( i != copiedChunk ) {
+				c[i] = c[i] == null ? new int[ BEATS_PER_CHUNK ][] : c[i].clone();
+				copiedChunk = i;
+			}
+			int [] row = score.getTrack( t ).notes.copyNotesAtBeat( beat );
+			newNumNotes += rowLength( row ) - rowLength( c[i][ beat % BEATS_PER_CHUNK ] );
+			c[i][ beat % BEATS_PER_CHUNK ] = row;
+		}
+
+		long newSerial = nextSerial.incrementAndGet();
+		long newBase = base;
+		long [] newLogSerials = logSerials;
+		long [] newLogKeys = logKeys;
+		int newLogLength = logLength + changedBeats.length;
+		if ( newLogLength > MAX_LOG_LENGTH ) {
+			// start a new log, covering the changes made after this snapshot
+			newBase = serial;
+			newLogLength = changedBeats.length;
+			newLogSerials = new long[ Math.max( 16, newLogLength ) ];
+			newLogKeys = new long[ newLogSerials.length ];
+		}
+		else if ( newLogLength > logSerials.length ) {
+			int newCapacity = Math.max( newLogLength, 2 * logSerials.length );
+			newLogSerials = Arrays.copyOf( logSerials, newCapacity );
+			newLogKeys = Arrays.copyOf( logKeys, newCapacity );
+		}
+		int start = newLogLength - changedBeats.length;
+		for ( int i = 0; i < changedBeats.length; ++i ) {
+			newLogSerials[ start + i ] = newSerial;
+			newLogKeys[ start + i ] = changedBeats[i];
+		}
+		return new ScoreSnapshot( score, newChunks, newNumNotes, newSerial, origin, newBase, newLogSerials, newLogKeys, newLogLength );
+	}
+
+	public int getNumTracks() { return chunks.length; }
+	public int getChannel( int track ) { return channels[ track ]; }
+	public int getProgram( int track ) { return programs[ track ]; }
+	// Takes mute and solo into account.
+	public boolean isAudible( int track ) { return isAudible[ track ]; }
+
+	private int [] getRow( int track, int beat ) {
+		if ( beat < 0 )
+			return null;
+		int [][][] c = chunks[ track ];
+		int i = beat / BEATS_PER_CHUNK;
+		if ( i >= c.length || c[i] == null )
+			return null;
+		return c[i][ beat % BEATS_PER_CHUNK ];
+	}
+
+	// Counts all the notes of all the tracks, including those beyond numBeats.
+	public int getNumNotes() { return numNotes; }
+
+	public int getNumNotesAtBeat( int track, int beat ) {
+		return rowLength( getRow( track, beat ) );
+	}
+
+	// Returns the i-th note of the given beat, in order of offset and then pitch, packed as in NoteStore.
+	public int getNote( int track, int beat, int i ) {
+		return getRow( track, beat )[i];
+	}
+
+	// Returns 0 if there is no note at the given position.
+	public int getNoteDuration( int track, int beat, int offset, int pitch ) {
+		int [] row = getRow( track, beat );
+		if ( row != null )
+			for ( int note : row )
+				if ( NoteStore.offsetOf( note ) == offset && NoteStore.pitchOf( note ) == pitch )
+					return NoteStore.durationOf( note );
+		return 0;
+	}
+
+	// Returns true if the notes of this snapshot only differ from those of ``older''
+	// at the beats given by getChangedTrack() and getChangedBeat(),
+	// from getFirstChangeSince( older ) to getNumChanges()
+	// (the lengths and the settings of the tracks may differ, though). A beat may be listed more than once.
+	public boolean canBePatchedFrom( ScoreSnapshot older ) {
+		return older != null && older.origin == origin && base <= older.serial && older.serial <= serial;
+	}
+	public int getFirstChangeSince( ScoreSnapshot older ) {
+		int lo = 0, hi = logLength;
+		while ( lo < hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			if ( logSerials[mid] <= older.serial ) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+	public int getNumChanges() { return logLength; }
+	public int getChangedTrack( int i ) { return (int)( logKeys[i] >>> 32 ); }
+	public int getChangedBeat( int i ) { return (int)logKeys[i]; }
+
+	// Visits every note of the track in the range [beatMin,beatMax) in order of beat, then offset, then pitch,
+	// in the same way as NoteStore.Cursor.
+	public Cursor cursor( int track, int beatMin, int beatMax ) {
+		return new Cursor( chunks[ track ], beatMin, beatMax );
+	}
+
+	public static final class Cursor {
+		private final int [][][] chunks;
+		private int beat;
+		private final int beatMax;
+		private int [] row = null;
+		private int index = 0;
+
+		private Cursor( int [][][] chunks, int beatMin, int beatMax ) {
+			this.chunks = chunks;
+			this.beat = Math.max( 0, beatMin ) - 1;
+			this.beatMax = Math.min( beatMax, chunks.length * BEATS_PER_CHUNK );
+		}
+
+		// Advances to the next note. Returns false when there are no more notes.
+		public boolean next() {
+			if ( row != null && ++index < row.length )
+				return true;
+			while ( ++beat < beatMax ) {
+				int [][] chunk = chunks[ beat / BEATS_PER_CHUNK ];
+				if ( chunk == null ) {
+					// skip to the last beat of the chunk
+					beat = ( beat / BEATS_PER_CHUNK + 1 ) * BEATS_PER_CHUNK - 1;
+					continue;
+				}
+				row = chunk[ beat % BEATS_PER_CHUNK ];
+				if ( row != null ) {
+					index = 0;
+					return true;
+				}
+			}
+			row = null;
+			return false;
+		}
+
+		public int beat() { return beat; }
+		public int offset() { return NoteStore.offsetOf( row[index] ); }
+		public int pitch() { return NoteStore.pitchOf( row[index] ); }
+		public int duration() { return NoteStore.durationOf( row[index] ); }
+	}
+
+}
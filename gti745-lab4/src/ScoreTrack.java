@@ -0,0 +1,78 @@
+
+// One track of a Score: its notes, and how they are played and drawn.
+//
+// The notes and the settings are modified through Score (setNote(), setTrackProgram(), etc.),
+// which keeps ``occupancy'' and ``density'' in sync with ``notes''
+// and records the modification for the next ScoreSnapshot.
+public class ScoreTrack {
+
+	public static final int NUM_CHANNELS = 16;
+
+	// Colors given to new tracks, in turn; the first is the color notes have always had.
+	private static final float [][] PALETTE = {
+		{ 0, 0, 0 },
+		{ 0.8f, 0.1f, 0.1f },
+		{ 0.1f, 0.35f, 0.9f },
+		{ 0.1f, 0.6f, 0.1f },
+		{ 0.7f, 0.2f, 0.8f },
+		{ 0.9f, 0.5f, 0 },
+		{ 0, 0.6f, 0.6f },
+		{ 0.55f, 0.35f, 0.1f },
+	};
+
+	public String name;
+	public int channel; // MIDI channel, in [0,NUM_CHANNELS)
+	public int program = 0; // General MIDI program (i.e. instrument), in [0,127]
+	public boolean isMuted = false;
+	public boolean isSolo = false;
+	// Color of the notes, with components in [0,1]
+	public float red, green, blue;
+
+	public final NoteStore notes = new NoteStore();
+	// Mirrors ``notes'' as one bitset per beat (of the pitches that have a note starting within the beat), for fast per-beat queries.
+	public final PitchOccupancy occupancy;
+	// Number of notes per block of cells, for drawing zoomed-out views (see Score.drawDensity()).
+	public final DensityMipmap density = new DensityMipmap();
+
+	public ScoreTrack( String name, int channel, int numBeats, int colorIndex ) {
+		this.name = name;
+		this.channel = channel;
+		occupancy = new PitchOccupancy( numBeats );
+		float [] color = PALETTE[ colorIndex % PALETTE.length ];
+		red = color[0];
+		green = color[1];
+		blue = color[2];
+	}
+
+	// The color packed as 0xRRGGBB, as stored in files.
+	public int getRGB() {
+		return ( Math.round( red * 255 ) << 16 ) | ( Math.round( green * 255 ) << 8 ) | Math.round( blue * 255 );
+	}
+	public void setRGB( int rgb ) {
+		red = ( ( rgb >> 16 ) & 0xFF ) / 255f;
+		green = ( ( rgb >> 8 ) & 0xFF ) / 255f;
+		blue = ( rgb & 0xFF ) / 255f;
+	}
+
+	// Returns the first channel that none of the given tracks uses,
+	// trying the percussion channel (9) and the channel of the tempo click (15) last,
+	// or -1 if they are all used.
+	public static int findFreeChannel( Iterable< ScoreTrack > tracks ) {
+		boolean [] isUsed = new boolean[ NUM_CHANNELS ];
+		for ( ScoreTrack t : tracks )
+			isUsed[ t.channel ] = true;
+		for ( int c = 0; c < NUM_CHANNELS; ++c )
+			if ( c != 9 && c != 15 && ! isUsed[c] )
+				return c;
+		if ( ! isUsed[9] )
+			return 9;
+		return isUsed[15] ? -1 : 15;
+	}
+
+	// Takes mute and solo into account: if any track of the score is soloed,
+	// only the soloed tracks are heard.
+	public boolean isAudible( boolean isAnyTrackSoloed ) {
+		return ! isMuted && ( isSolo || ! isAnyTrackSoloed );
+	}
+
+}
@@ -1,32 +1,19 @@
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.awt.Container;
 import java.awt.Component;
-import java.awt.Graphics;
 // import java.awt.Graphics2D;
-import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.event.KeyListener;
-import java.awt.event.MouseListener;
-import java.awt.event.MouseMotionListener;
-import java.awt.event.KeyEvent;
-import java.awt.event.MouseEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
 
 import javax.swing.JComboBox;
-import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JMenuBar;
@@ -40,870 +27,15 @@ import javax.swing.SwingUtilities;
 import javax.swing.ButtonGroup;
 import javax.swing.BoxLayout;
 import javax.swing.Box;
-import javax.swing.BorderFactory;
 import javax.swing.JLabel;
-import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.Synthesizer;
 import javax.sound.midi.MidiChannel;
+import javax.sound.midi.Instrument;
+import javax.sound.midi.Patch;
 
 
 
-/*
-   The octave:
-      pitch class     English name     French name
-           0             C             do
-           1             C#/Db         do diese / re bemol
-           2             D             re
-           3             D#/Eb         re diese / mi bemol
-           4             E             mi
-           5             F             fa
-           6             F#/Gb         fa diese / sol bemol
-           7             G             sol
-           8             G#/Ab         sol diese / la bemol
-           9             A             la
-          10             A#/Bb         la diese / si bemol
-          11             B             si
-           0             C             do
-
-   A grand piano keyboard has 88 keys:
-                              Note Name     MIDI note number     Pitch class
-      lowest key (1st key):       A0            21                     9
-      middle C:                   C4            60                     0
-      highest key (88th key):     C8           108                     0
-*/
-
-
-class Score {
-	public static final int midiNoteNumberOfMiddleC = 60;
-
-	public int numPitches = 88;
-	public static final int pitchClassOfLowestPitch = 9; // 9==A==la
-	public static final int midiNoteNumberOfLowestPitch = 21;
-	public int numBeats = 128;
-	public boolean [][] grid;
-	public int [][] time;
-
-	public static final int numPitchesInOctave = 12;
-	public String [] namesOfPitchClasses;
-	public boolean [] pitchClassesInMajorScale;
-	public boolean [] pitchClassesToEmphasizeInMajorScale;
-
-	public Score() {
-		grid = new boolean[ numBeats ][ numPitches ];
-		time = new int[ numBeats ][ numPitches ];
-
-		namesOfPitchClasses = new String[ numPitchesInOctave ];
-		namesOfPitchClasses[ 0] = "C";
-		namesOfPitchClasses[ 1] = "C#";
-		namesOfPitchClasses[ 2] = "D";
-		namesOfPitchClasses[ 3] = "D#";
-		namesOfPitchClasses[ 4] = "E";
-		namesOfPitchClasses[ 5] = "F";
-		namesOfPitchClasses[ 6] = "F#";
-		namesOfPitchClasses[ 7] = "G";
-		namesOfPitchClasses[ 8] = "G#";
-		namesOfPitchClasses[ 9] = "A";
-		namesOfPitchClasses[10] = "A#";
-		namesOfPitchClasses[11] = "B";
-
-		pitchClassesInMajorScale = new boolean[ numPitchesInOctave ];
-		pitchClassesInMajorScale[ 0] = true;
-		pitchClassesInMajorScale[ 1] = false;
-		pitchClassesInMajorScale[ 2] = true;
-		pitchClassesInMajorScale[ 3] = false;
-		pitchClassesInMajorScale[ 4] = true;
-		pitchClassesInMajorScale[ 5] = true;
-		pitchClassesInMajorScale[ 6] = false;
-		pitchClassesInMajorScale[ 7] = true;
-		pitchClassesInMajorScale[ 8] = false;
-		pitchClassesInMajorScale[ 9] = true;
-		pitchClassesInMajorScale[10] = false;
-		pitchClassesInMajorScale[11] = true;
-
-		pitchClassesToEmphasizeInMajorScale = new boolean[ numPitchesInOctave ];
-		pitchClassesToEmphasizeInMajorScale[ 0] = true;
-		pitchClassesToEmphasizeInMajorScale[ 1] = false;
-		pitchClassesToEmphasizeInMajorScale[ 2] = false;
-		pitchClassesToEmphasizeInMajorScale[ 3] = false;
-		pitchClassesToEmphasizeInMajorScale[ 4] = true;
-		pitchClassesToEmphasizeInMajorScale[ 5] = true;
-		pitchClassesToEmphasizeInMajorScale[ 6] = false;
-		pitchClassesToEmphasizeInMajorScale[ 7] = true;
-		pitchClassesToEmphasizeInMajorScale[ 8] = false;
-		pitchClassesToEmphasizeInMajorScale[ 9] = false;
-		pitchClassesToEmphasizeInMajorScale[10] = false;
-		pitchClassesToEmphasizeInMajorScale[11] = false;
-	}
-
-	// returns -1 if out of bounds
-	public int getMidiNoteNumberForMouseY( GraphicsWrapper gw, int mouse_y ) {
-		float y = gw.convertPixelsToWorldSpaceUnitsY( mouse_y );
-		int indexOfPitch = (int)(-y);
-		if ( 0 <= indexOfPitch && indexOfPitch < numPitches )
-			return indexOfPitch + midiNoteNumberOfLowestPitch;
-		return -1;
-	}
-
-	// returns -1 if out of bounds
-	public int getBeatForMouseX( GraphicsWrapper gw, int mouse_x ) {
-		float x = gw.convertPixelsToWorldSpaceUnitsX( mouse_x );
-		int indexOfBeat = (int)x;
-		if ( 0 <= indexOfBeat && indexOfBeat < numBeats )
-			return indexOfBeat;
-		return -1;
-	}
-
-	public void draw(
-		GraphicsWrapper gw,
-		boolean highlightMajorCScale,
-		int midiNoteNumber1ToHilite,
-		int beat1ToHilite,
-		int beat2ToHilite
-	) {
-		for ( int y = 0; y < numPitches; y++ ) {
-			int pitchClass = ( y + pitchClassOfLowestPitch ) % numPitchesInOctave;
-			int midiNoteNumber = y + midiNoteNumberOfLowestPitch;
-			if ( midiNoteNumber == midiNoteNumber1ToHilite ) { // mouse cursor
-				gw.setColor( 0, 1, 1 );
-				gw.fillRect( 0, -y-0.8f, numBeats, 0.6f );
-			}
-
-			if ( midiNoteNumber == midiNoteNumberOfMiddleC ) {
-				gw.setColor( 1, 1, 1 );
-				gw.fillRect( 0, -y-0.7f, numBeats, 0.4f );
-			}
-			else if ( pitchClass == 0 && highlightMajorCScale ) {
-				gw.setColor( 1, 1, 1 );
-				gw.fillRect( 0, -y-0.6f, numBeats, 0.2f );
-			}
-			else if ( pitchClassesToEmphasizeInMajorScale[ pitchClass ] && highlightMajorCScale ) {
-				gw.setColor( 0.6f, 0.6f, 0.6f );
-				gw.fillRect( 0, -y-0.6f, numBeats, 0.2f );
-			}
-			else if ( pitchClassesInMajorScale[ pitchClass ] || ! highlightMajorCScale ) {
-				gw.setColor( 0.6f, 0.6f, 0.6f );
-				gw.fillRect( 0, -y-0.55f, numBeats, 0.1f );
-			}
-		}
-		for ( int x = 0; x < numBeats; x++ ) {
-			if ( x == beat1ToHilite ) { // mouse cursor
-				gw.setColor( 0, 1, 1 );
-				gw.fillRect( x+0.2f, -numPitches, 0.6f, numPitches );
-			}
-
-			if ( x == beat2ToHilite ) { // time cursor
-				gw.setColor( 1, 0, 0 );
-				gw.fillRect( x+0.45f, -numPitches, 0.1f, numPitches );
-			}
-			else if ( x % 4 == 0 ) {
-				gw.setColor( 0.6f, 0.6f, 0.6f );
-				gw.fillRect( x+0.45f, -numPitches, 0.1f, numPitches );
-			}
-		}
-		gw.setColor( 0, 0, 0 );
-		for ( int y = 0; y < numPitches; ++y ) {
-			for ( int x = 0; x < numBeats; ++x ) {
-				if ( grid[x][y] )
-					gw.fillRect( x+0.3f, -y-0.7f, 0.4f, 0.4f );
-			}
-		}
-	}
-
-	public AlignedRectangle2D getBoundingRectangle() {
-		return new AlignedRectangle2D(
-			new Point2D(0,-numPitches),
-			new Point2D(numBeats,0)
-		);
-	}
-
-}
-
-class MyCanvas extends JPanel implements KeyListener, MouseListener, MouseMotionListener, Runnable {
-
-	SimplePianoRoll simplePianoRoll;
-	GraphicsWrapper gw = new GraphicsWrapper();
-
-	Score score = new Score();
-
-	Thread thread = null;
-	boolean threadSuspended;
-
-	int currentBeat = 0;
-	public int sleepIntervalInMilliseconds = 150;
-	public static final int RADIAL_MENU_PLAY = 0;
-	public static final int RADIAL_MENU_STOP = 1;
-	public static final int RADIAL_MENU_DRAW = 2;
-	public static final int RADIAL_MENU_ERASE = 3;
-
-	public static final int CONTROL_MENU_ZOOM = 0;
-	public static final int CONTROL_MENU_PAN = 1;
-	public static final int CONTROL_MENU_TEMPO = 2;
-	public static final int CONTROL_MENU_TOTAL_DURATION = 3;
-	public static final int CONTROL_MENU_TRANSPOSE = 4;
-	
-	public static final int BEAT_MENU_BLANCHE = 0;
-	public static final int BEAT_MENU_RONDE = 1;
-	public static final int BEAT_MENU_CROCHE = 2;
-	public static final int BEAT_MENU_DOUBLE_CROCHE = 3;
-	
-	
-	public static final int FLOW_MENU_ZOOM = 1;
-	public static final int FLOW_MENU_ZOOM_ITEMS = 9;
-	
-	public static final int FLOW_MENU_TEMPO = 2;
-	public static final int FLOW_MENU_TEMPO_ITEMS = 10;
-	
-	public static final int FLOW_MENU_DRAW = 3;
-	public static final int FLOW_MENU_DRAW_ITEMS = 11;
-	
-	public static final int FLOW_MENU_TRANSPOSE = 4;
-	public static final int FLOW_MENU_TRANSPOSE_ITEMS = 12;
-	
-	public static final int FLOW_MENU_MUSIC = 5;
-	public static final int FLOW_MENU_MUSIC_ITEMS = 13;
-	
-	public static final int FLOW_MENU_TOTAL_DURATION = 6;
-	public static final int FLOW_MENU_TOTAL_DURATION_ITEMS = 14;
-	
-	public static final int FLOW_MENU_PAN = 7;
-	public static final int FLOW_MENU_PAN_ITEMS = 15;
-	
-
-	RadialMenuWidget radialMenu = new RadialMenuWidget();
-	ControlMenuWidget controlMenu = new ControlMenuWidget();
-	RadialMenuWidget beatMenu = new RadialMenuWidget();
-	FlowMenuWidget flowMenu = new FlowMenuWidget();
-
-	int mouse_x, mouse_y, old_mouse_x, old_mouse_y;
-
-	boolean isControlKeyDown = false;
-
-	int beatOfMouseCursor = -1; // -1 for none
-	int midiNoteNumberOfMouseCurser = -1; // -1 for none
-
-	public MyCanvas( SimplePianoRoll sp ) {
-		simplePianoRoll = sp;
-		setBorder( BorderFactory.createLineBorder( Color.black ) );
-		setBackground( Color.white );
-		addKeyListener( this );
-		addMouseListener( this );
-		addMouseMotionListener( this );
-
-		radialMenu.setItemLabelAndID( RadialMenuWidget.CENTRAL_ITEM, "",            RADIAL_MENU_STOP );
-		radialMenu.setItemLabelAndID( 1,                             "Stop Music",  RADIAL_MENU_STOP );
-		radialMenu.setItemLabelAndID( 3,                             "Draw Notes",  RADIAL_MENU_DRAW );
-		radialMenu.setItemLabelAndID( 5,                             "Play Music",  RADIAL_MENU_PLAY );
-		radialMenu.setItemLabelAndID( 7,                             "Erase Notes", RADIAL_MENU_ERASE );
-
-		controlMenu.setItemLabelAndID( ControlMenuWidget.CENTRAL_ITEM, "", -1 );
-		controlMenu.setItemLabelAndID( 1, "Tempo", CONTROL_MENU_TEMPO );
-		controlMenu.setItemLabelAndID( 2, "Pan", CONTROL_MENU_PAN );
-		controlMenu.setItemLabelAndID( 3, "Zoom", CONTROL_MENU_ZOOM );
-		controlMenu.setItemLabelAndID( 5, "Total Duration", CONTROL_MENU_TOTAL_DURATION );
-		controlMenu.setItemLabelAndID( 7, "Transpose", CONTROL_MENU_TRANSPOSE );
-		
-		beatMenu.setItemLabelAndID( RadialMenuWidget.CENTRAL_ITEM, "",            RADIAL_MENU_STOP );
-		beatMenu.setItemLabelAndID( 1,                             "Croche",  BEAT_MENU_CROCHE );
-		beatMenu.setItemLabelAndID( 3,                             "Ronde",  BEAT_MENU_RONDE );
-		beatMenu.setItemLabelAndID( 5,                             "Double croche",  BEAT_MENU_DOUBLE_CROCHE );
-		beatMenu.setItemLabelAndID( 7,                             "Blanche", BEAT_MENU_BLANCHE );
-		
-		
-		flowMenu.setItemLabelAndID( RadialMenuWidget.CENTRAL_ITEM, "",            0 );
-		flowMenu.setItemLabelAndID( 1,                             "Zoom",  1 );
-		flowMenu.setItemLabelAndID( 2,                             "Tempo",  2 );
-		flowMenu.setItemLabelAndID( 3,                             "Draw",  3 );
-		flowMenu.setItemLabelAndID( 4,                             "Transpose", 4 );
-		flowMenu.setItemLabelAndID( 5,                             "Music", 5 );
-		flowMenu.setItemLabelAndID( 6,                             "Duration", 6 );
-		flowMenu.setItemLabelAndID( 7,                             "Pan", 7 );
-		flowMenu.setItemLabelAndID( 8,                             "", 8 );
-		flowMenu.setItemLabelAndID( 9,                             "+/-", 9 );
-		flowMenu.setItemLabelAndID( 10,                            "+/-", 10 );
-		flowMenu.setItemLabelAndID( 11,                            "+/-", 11 );
-		flowMenu.setItemLabelAndID( 12,                            "+/-", 12 );
-		flowMenu.setItemLabelAndID( 13,                            "+/-", 13 );
-		flowMenu.setItemLabelAndID( 14,                            "+/-", 14 );
-		flowMenu.setItemLabelAndID( 15,                            "+/-", 15 );
-		flowMenu.setItemLabelAndID( 16,                            "+/-", 16 );
-		
-
-		gw.frame( score.getBoundingRectangle(), false );
-	}
-	
-	public void saveMusic()
-	{		
-		BufferedWriter bufferedWriter = null;
-		StringBuffer sb = new StringBuffer();
-		
-		try {
-			JFileChooser fileChooser = new JFileChooser();
-			FileNameExtensionFilter filter = new FileNameExtensionFilter("Beatz", "beatz");
-			fileChooser.setFileFilter(filter);
-			int result = fileChooser.showSaveDialog(this);
-			
-			if(result == JFileChooser.APPROVE_OPTION) {
-				
-				String fileName = fileChooser.getSelectedFile().getAbsolutePath();
-				
-				if(!fileName.endsWith(".beatz")) {
-					fileName += ".beatz";
-				}
-				
-				bufferedWriter = new BufferedWriter(new FileWriter(fileName));
-				
-				for (int x = 0; x < score.time.length; x++) {
-	
-					for (int y = 0; y < score.time[x].length; y++) {
-	
-						sb.append(score.time[x][y] + ";");			    
-					}
-					
-					bufferedWriter.write(sb.toString());
-					bufferedWriter.newLine();
-					sb = new StringBuffer();
-	
-				}
-				
-				bufferedWriter.flush();  
-				bufferedWriter.close(); 
-			}
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			if(bufferedWriter != null) {
-				try {
-					bufferedWriter.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-	}
-
-	public void loadMusic()
-	{
-		JFileChooser fileChooser = new JFileChooser();
-		FileNameExtensionFilter filter = new FileNameExtensionFilter("Beatz", "beatz");
-		fileChooser.setFileFilter(filter);
-		int result = fileChooser.showOpenDialog(this);
-
-		if (result == JFileChooser.APPROVE_OPTION) {
-			BufferedReader bufferedReader = null;
-			String line;
-			
-			try {
-				bufferedReader = new BufferedReader( new FileReader(fileChooser.getSelectedFile()));
-				int x = 0;
-
-				while ((line = bufferedReader.readLine()) != null) {
-
-					String[] temps = line.split(";");
-
-					for (int i = 0; i < temps.length; i++) {
-						score.time[x][i] = Integer.parseInt(temps[i]);
-						if(temps[i].equals("0"))
-							score.grid[x][i] = false;
-						else
-							score.grid[x][i] = true;
-					}
-					x++;
-				}
-				
-				repaint();
-			} catch (Exception e) {
-				e.printStackTrace();
-			} finally {
-				if(bufferedReader != null) {
-					try {
-						bufferedReader.close();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
-			}
-
-		}
-	}
-	
-	public Dimension getPreferredSize() {
-		return new Dimension( Constant.INITIAL_WINDOW_WIDTH, Constant.INITIAL_WINDOW_HEIGHT );
-	}
-	public void clear() {
-		for ( int y = 0; y < score.numPitches; ++y )
-			for ( int x = 0; x < score.numBeats; ++x )
-				score.grid[x][y] = false;
-		repaint();
-	}
-	public void frameAll() {
-		gw.frame( score.getBoundingRectangle(), false );
-		repaint();
-	}
-	public void paintComponent( Graphics g ) {
-		super.paintComponent( g );
-		gw.set( g );
-		if ( getWidth() != gw.getWidth() || getHeight() != gw.getHeight() )
-			gw.resize( getWidth(), getHeight() );
-		gw.clear(0.4f,0.4f,0.4f);
-		gw.setupForDrawing();
-		gw.setCoordinateSystemToWorldSpaceUnits();
-		gw.enableAlphaBlending();
-
-		score.draw(
-			gw,
-			simplePianoRoll.highlightMajorScale,
-			midiNoteNumberOfMouseCurser,
-			beatOfMouseCursor,
-			currentBeat
-		);
-
-		gw.setCoordinateSystemToPixels();
-
-		if ( radialMenu.isVisible() )
-			radialMenu.draw( gw );
-		if ( controlMenu.isVisible() )
-			controlMenu.draw( gw );
-		if ( flowMenu.isVisible() )
-			flowMenu.draw(gw);
-
-		if ( ! radialMenu.isVisible() && ! controlMenu.isVisible() && ! flowMenu.isVisible() ) {
-			// draw datatip
-			if ( midiNoteNumberOfMouseCurser >= 0 && beatOfMouseCursor >= 0 ) {
-				final int margin = 5;
-				final int x_offset = 15;
-
-				String s = score.namesOfPitchClasses[
-					( midiNoteNumberOfMouseCurser - score.midiNoteNumberOfLowestPitch + score.pitchClassOfLowestPitch )
-					% score.numPitchesInOctave
-				];
-				int x0 = mouse_x + x_offset;
-				int y0 = mouse_y - RadialMenuWidget.textHeight - 2*margin;
-				int height = RadialMenuWidget.textHeight + 2*margin;
-				int width = Math.round( gw.stringWidth( s ) + 2*margin );
-				gw.setColor( 0, 0, 0, 0.6f );
-				gw.fillRect( x0, y0, width, height );
-				gw.setColor( 1, 1, 1 );
-				gw.drawRect( x0, y0, width, height );
-				gw.drawString( mouse_x + x_offset + margin, mouse_y - margin, s );
-			}
-		}
-	}
-
-	public void keyPressed( KeyEvent e ) {
-		if ( e.getKeyCode() == KeyEvent.VK_CONTROL ) {
-			isControlKeyDown = true;
-			if (
-				beatOfMouseCursor>=0
-				&& simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER_IF_SPECIAL_KEY_HELD_DOWN
-			)
-				playNote( midiNoteNumberOfMouseCurser );
-		}
-	}
-	public void keyReleased( KeyEvent e ) {
-		if ( e.getKeyCode() == KeyEvent.VK_CONTROL ) {
-			isControlKeyDown = false;
-			stopPlayingNote( midiNoteNumberOfMouseCurser );
-		}
-	}
-	public void keyTyped( KeyEvent e ) {
-		
-	}
-
-
-	public void mouseClicked( MouseEvent e ) { }
-	public void mouseEntered( MouseEvent e ) { }
-	public void mouseExited( MouseEvent e ) { }
-
-	private void paint( int mouse_x, int mouse_y, int beat) {
-		int newBeatOfMouseCursor = score.getBeatForMouseX( gw, mouse_x );
-		int newMidiNoteNumberOfMouseCurser = score.getMidiNoteNumberForMouseY( gw, mouse_y );
-		if (
-			newBeatOfMouseCursor != beatOfMouseCursor
-			|| newMidiNoteNumberOfMouseCurser != midiNoteNumberOfMouseCurser
-		) {
-			beatOfMouseCursor = newBeatOfMouseCursor;
-			midiNoteNumberOfMouseCurser = newMidiNoteNumberOfMouseCurser;
-			repaint();
-		}
-
-		if ( beatOfMouseCursor >= 0 && midiNoteNumberOfMouseCurser >= 0 ) {
-			if ( score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] != true ) 
-			{
-				String s = score.namesOfPitchClasses[
-				                 					( midiNoteNumberOfMouseCurser - score.midiNoteNumberOfLowestPitch + score.pitchClassOfLowestPitch )
-				                 					% score.numPitchesInOctave
-				                 				];
-				if (Arrays.asList((simplePianoRoll.gammePermise)).contains(s))
-				{
-					score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] = true;
-					score.time[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] = beat;
-					repaint();
-				}
-				
-			}
-		}
-		else if ( simplePianoRoll.dragMode == SimplePianoRoll.DM_ERASE_NOTES ) {
-			if ( score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] != false ) {
-				score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] = false;
-				score.time[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] = Constant.tempsNoire;
-				repaint();
-			}
-		}
-	}
-
-	public void mousePressed( MouseEvent e ) {
-		old_mouse_x = mouse_x;
-		old_mouse_y = mouse_y;
-		mouse_x = e.getX();
-		mouse_y = e.getY();
-
-		isControlKeyDown = e.isControlDown();
-
-		if ( radialMenu.isVisible() || (SwingUtilities.isLeftMouseButton(e) && e.isControlDown()) ) {
-			int returnValue = radialMenu.pressEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( controlMenu.isVisible() || (SwingUtilities.isLeftMouseButton(e) && e.isShiftDown()) ) {
-			int returnValue = controlMenu.pressEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( SwingUtilities.isLeftMouseButton(e) ) {
-			paint( mouse_x, mouse_y, Constant.tempsNoire);
-		} else if(SwingUtilities.isRightMouseButton(e) || flowMenu.isVisible()) {
-			
-			int returnValue = flowMenu.pressEvent( mouse_x, mouse_y );
-			
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-	}
-
-	public void mouseReleased( MouseEvent e ) {
-		old_mouse_x = mouse_x;
-		old_mouse_y = mouse_y;
-		mouse_x = e.getX();
-		mouse_y = e.getY();
-
-		isControlKeyDown = e.isControlDown();
-
-		if ( radialMenu.isVisible() ) {
-			int returnValue = radialMenu.releaseEvent( mouse_x, mouse_y );
-
-			int itemID = radialMenu.getIDOfSelection();
-			if ( 0 <= itemID ) {
-				switch ( itemID ) {
-					case RADIAL_MENU_PLAY:
-						simplePianoRoll.setMusicPlaying( true );
-						break;
-					case RADIAL_MENU_STOP:
-						simplePianoRoll.setMusicPlaying( false );
-						break;
-					case RADIAL_MENU_DRAW:
-						simplePianoRoll.setDragMode( SimplePianoRoll.DM_DRAW_NOTES );
-						break;
-					case RADIAL_MENU_ERASE:
-						simplePianoRoll.setDragMode( SimplePianoRoll.DM_ERASE_NOTES );
-						break;
-				}
-			}
-
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( controlMenu.isVisible() ) {
-			int returnValue = controlMenu.releaseEvent( mouse_x, mouse_y );
-
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		
-		if ( flowMenu.isVisible() ) {
-			int returnValue = flowMenu.releaseEvent( mouse_x, mouse_y );
-			
-			/*
-			int itemID = beatMenu.getIDOfSelection();
-			if ( 0 <= itemID ) {
-				switch ( itemID ) {
-					case BEAT_MENU_BLANCHE:
-						paint( beatMenu.x0, beatMenu.y0, Constant.tempsBlanche );
-						break;
-					case BEAT_MENU_RONDE:
-						paint( beatMenu.x0, beatMenu.y0, Constant.tempsRonde );
-						break;
-					case BEAT_MENU_CROCHE:
-						paint( beatMenu.x0, beatMenu.y0, Constant.tempsCroche );
-						break;
-					case BEAT_MENU_DOUBLE_CROCHE:
-						paint( beatMenu.x0, beatMenu.y0, Constant.tempsDoubleCroche );
-						break;
-				}
-			}
-			*/
-			
-		}
-	}
-
-	private void playNote( int midiNoteNumber ) {
-		if ( Constant.USE_SOUND && midiNoteNumber >= 0 ) {
-			simplePianoRoll.midiChannels[0].noteOn(midiNoteNumber,Constant.midiVolume);
-		}
-	}
-	private void stopPlayingNote( int midiNoteNumber ) {
-		if ( Constant.USE_SOUND && midiNoteNumber >= 0 ) {
-			simplePianoRoll.midiChannels[0].noteOff(midiNoteNumber);
-		}
-	}
-
-	public void mouseMoved( MouseEvent e ) {
-		old_mouse_x = mouse_x;
-		old_mouse_y = mouse_y;
-		mouse_x = e.getX();
-		mouse_y = e.getY();
-
-		requestFocusInWindow();
-
-		isControlKeyDown = e.isControlDown();
-
-		if ( radialMenu.isVisible() ) {
-			int returnValue = radialMenu.moveEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( controlMenu.isVisible() ) {
-			int returnValue = controlMenu.moveEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		else {
-			int newBeatOfMouseCursor = score.getBeatForMouseX( gw, mouse_x );
-			int newMidiNoteNumberOfMouseCurser = score.getMidiNoteNumberForMouseY( gw, mouse_y );
-			if ( newBeatOfMouseCursor != beatOfMouseCursor ) {
-				beatOfMouseCursor = newBeatOfMouseCursor;
-				repaint();
-			}
-			if ( newMidiNoteNumberOfMouseCurser != midiNoteNumberOfMouseCurser ) {
-				stopPlayingNote( midiNoteNumberOfMouseCurser );
-				midiNoteNumberOfMouseCurser = newMidiNoteNumberOfMouseCurser;
-				if (
-					beatOfMouseCursor>=0
-					&& (
-						simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER
-						|| (
-							simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER_IF_SPECIAL_KEY_HELD_DOWN
-							&& isControlKeyDown
-						)
-					)
-				)
-					playNote( midiNoteNumberOfMouseCurser );
-				repaint();
-			}
-		}
-
-	}
-
-	public void mouseDragged( MouseEvent e ) {
-		old_mouse_x = mouse_x;
-		old_mouse_y = mouse_y;
-		mouse_x = e.getX();
-		mouse_y = e.getY();
-		int delta_x = mouse_x - old_mouse_x;
-		int delta_y = mouse_y - old_mouse_y;
-
-		isControlKeyDown = e.isControlDown();
-
-		if ( radialMenu.isVisible() ) {
-			int returnValue = radialMenu.dragEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( flowMenu.isVisible() ) {
-			
-			int returnValue = flowMenu.dragEvent( mouse_x, mouse_y );
-			
-			if ( returnValue == CustomWidget.S_REDRAW ) {
-				
-				switch ( flowMenu.getIDOfSelection() ) {
-				case FLOW_MENU_ZOOM:
-					enableItem(FLOW_MENU_ZOOM_ITEMS);
-					break;
-				case FLOW_MENU_TEMPO:
-					enableItem(FLOW_MENU_TEMPO_ITEMS);
-					break;
-				case FLOW_MENU_DRAW:
-					enableItem(FLOW_MENU_DRAW_ITEMS);
-					break;
-				case FLOW_MENU_TRANSPOSE:
-					enableItem(FLOW_MENU_TRANSPOSE_ITEMS);
-					break;
-				case FLOW_MENU_MUSIC:
-					enableItem(FLOW_MENU_MUSIC_ITEMS);
-					break;
-				case FLOW_MENU_TOTAL_DURATION:
-					enableItem(FLOW_MENU_TOTAL_DURATION_ITEMS);
-				case FLOW_MENU_PAN:
-					enableItem(FLOW_MENU_PAN_ITEMS);
-					break;
-				}
-				
-				repaint();
-			}
-			
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( controlMenu.isVisible() ) {
-			if ( controlMenu.isInMenuingMode() ) {
-				int returnValue = controlMenu.dragEvent( mouse_x, mouse_y );
-				if ( returnValue == CustomWidget.S_REDRAW )
-					repaint();
-				if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-					return;
-			}
-			else {
-				// use the drag event to change the appropriate parameter
-				switch ( controlMenu.getIDOfSelection() ) {
-				case CONTROL_MENU_PAN:
-					gw.pan( delta_x, delta_y );
-					break;
-				case CONTROL_MENU_ZOOM:
-					gw.zoomIn( (float)Math.pow( Constant.zoomFactorPerPixelDragged, delta_x-delta_y ) );
-					break;
-				case CONTROL_MENU_TOTAL_DURATION:
-					// Changement #1
-					if(delta_x < 0) {
-						if(simplePianoRoll.canvas.score.numBeats > 0 && (simplePianoRoll.canvas.score.numBeats + delta_x) > 0) {
-							simplePianoRoll.canvas.score.numBeats += delta_x;
-							simplePianoRoll.canvas.score.grid = new boolean[simplePianoRoll.canvas.score.numBeats][simplePianoRoll.canvas.score.numPitches];
-							simplePianoRoll.canvas.score.time = new int[simplePianoRoll.canvas.score.numBeats][simplePianoRoll.canvas.score.numPitches];							
-						}
-					}
-					else {
-						if(simplePianoRoll.canvas.score.numBeats > 0) {
-							simplePianoRoll.canvas.score.numBeats += delta_x;
-							simplePianoRoll.canvas.score.grid = new boolean[simplePianoRoll.canvas.score.numBeats][simplePianoRoll.canvas.score.numPitches];
-							simplePianoRoll.canvas.score.time = new int[simplePianoRoll.canvas.score.numBeats][simplePianoRoll.canvas.score.numPitches];
-						}
-					}
-
-					break;
-				case CONTROL_MENU_TEMPO:
-					// Changement 3b
-					if (delta_y > 0)
-						sleepIntervalInMilliseconds += 10;
-					else if (sleepIntervalInMilliseconds > 10)
-						sleepIntervalInMilliseconds -= 10;
-					
-					simplePianoRoll.labelTempo.setText( "Tempo : " + Integer.toString(sleepIntervalInMilliseconds) + " ms");
-					
-					break;
-				default:
-					// TODO XXX
-					break;
-				}
-				repaint();
-			}
-		}
-		else {
-			paint( mouse_x, mouse_y, Constant.tempsNoire);
-		}
-	}
-
-	private void enableItem(int index) {
-		
-		// On desactive tout les items du second niveau
-		for (int i=9; i<=16; i++) {
-			flowMenu.setItemEnabled(i, false);
-		}
-		
-		// On active l'item du second niveau voulu.
-		flowMenu.setItemEnabled(index, true);
-		
-	}
-	
-	public void startBackgroundWork() {
-		currentBeat = 0;
-		if ( thread == null ) {
-			thread = new Thread( this );
-			threadSuspended = false;
-			thread.start();
-		}
-		else {
-			if ( threadSuspended ) {
-				threadSuspended = false;
-				synchronized( this ) {
-					notify();
-				}
-			}
-		}
-	}
-	public void stopBackgroundWork() {
-		threadSuspended = true;
-	}
-	public void run() {
-		try {
-			while (true) {
-
-				// Here's where the thread does some work
-				synchronized( this ) {
-					if ( Constant.USE_SOUND ) {
-						for ( int i = 0; i < score.numPitches; ++i ) {
-							if ( score.grid[currentBeat][i] )
-								simplePianoRoll.midiChannels[0].noteOff( i+score.midiNoteNumberOfLowestPitch );
-						}
-					}
-					currentBeat += 1;
-					if ( currentBeat >= score.numBeats )
-						currentBeat = 0;
-					if ( Constant.USE_SOUND ) {
-						for ( int i = 0; i < score.numPitches; ++i ) {
-							if ( score.grid[currentBeat][i] )
-								simplePianoRoll.midiChannels[0].noteOn( i+score.midiNoteNumberOfLowestPitch, Constant.midiVolume );
-						}
-					}
-					
-					if (controlMenu.isVisible() && controlMenu.getIDOfSelection() == CONTROL_MENU_TEMPO  )
-						//simplePianoRoll.midiChannels[0].noteOn(50,250);
-						simplePianoRoll.midiChannels[15].noteOn(28,100);
-				}
-				repaint();
-
-				// Now the thread checks to see if it should suspend itself
-				if ( threadSuspended ) {
-					synchronized( this ) {
-						while ( threadSuspended ) {
-							wait();
-						}
-					}
-				}
-				
-				thread.sleep( sleepIntervalInMilliseconds );  // interval given in milliseconds
-			}
-		}
-		catch (InterruptedException e) { }
-	}
-
-}
-
 public class SimplePianoRoll implements ActionListener {
 
 	static final String applicationName = "Simple Piano Roll";
@@ -920,12 +52,21 @@ public class SimplePianoRoll implements ActionListener {
 	JMenuItem quitMenuItem;
 	JCheckBoxMenuItem showToolsMenuItem;
 	JCheckBoxMenuItem highlightMajorScaleMenuItem;
+	JCheckBoxMenuItem showPerformanceOverlayMenuItem;
 	JMenuItem frameAllMenuItem;
 	JCheckBoxMenuItem autoFrameMenuItem;
 	JMenuItem aboutMenuItem;
 	JMenuItem generateMusicMenuItem;
 	JMenuItem saveMenuItem;
 	JMenuItem loadMenuItem;
+	JMenuItem exportMidiMenuItem;
+	JMenuItem importMidiMenuItem;
+	JMenuItem renderWavMenuItem;
+	JMenuItem addTrackMenuItem;
+	JMenuItem removeTrackMenuItem;
+	JCheckBoxMenuItem muteTrackMenuItem;
+	JCheckBoxMenuItem soloTrackMenuItem;
+	JMenuItem instrumentMenuItem;
 	
 
 	JCheckBox playCheckBox;
@@ -941,6 +82,7 @@ public class SimplePianoRoll implements ActionListener {
 	public boolean isMusicPlaying = false;
 	public boolean isMusicLoopedWhenPlayed = false;
 	public boolean highlightMajorScale = true;
+	public boolean showPerformanceOverlay = false;
 	public boolean isAutoFrameActive = true;
 
 	// The DM_ prefix is for Drag Mode
@@ -962,9 +104,72 @@ public class SimplePianoRoll implements ActionListener {
 	String[] gammePermise;
 	
 	JLabel labelTempo = new JLabel("Tempo : 150 ms" );
+	// Shows the progress of saving and loading.
+	JLabel labelStatus = new JLabel(" ");
 	
 	String[] scaleString = { "Majeur de do", "Pentatonique", "1", "2", "Tous"};
-	JComboBox scaleList = new JComboBox(scaleString);
+	JComboBox< String > scaleList = new JComboBox< String >(scaleString);
+
+	// Subdivisions of the beat to which notes drawn with the mouse can be snapped; 0 to follow the zoom.
+	static final int [] SNAP_SUBDIVISIONS = { 0, 1, 2, 3, 4, 6, 8, 16, 32 };
+	String [] snapStrings = { "Snap: zoom", "Snap: 1", "Snap: 1/2", "Snap: 1/3", "Snap: 1/4", "Snap: 1/6", "Snap: 1/8", "Snap: 1/16", "Snap: 1/32" };
+	JComboBox< String > snapList = new JComboBox< String >(snapStrings);
+	public int snapSubdivision = 0;
+
+	// Selects the track into which notes are drawn.
+	JComboBox< String > trackList = new JComboBox< String >();
+	// Set while trackList is being filled, so that the events it fires are ignored.
+	private boolean isUpdatingTrackList = false;
+
+	public void setStatus( String status ) {
+		labelStatus.setText( status );
+	}
+
+	// Shows the tracks of the score, and the settings of the current one.
+	// Must be called whenever tracks are added or removed, or the score is replaced.
+	public void updateTrackList() {
+		Score score = canvas.score;
+		isUpdatingTrackList = true;
+		trackList.removeAllItems();
+		for ( int i = 0; i < score.getNumTracks(); ++i ) {
+			ScoreTrack t = score.getTrack( i );
+			trackList.addItem( t.name + " (channel " + ( t.channel + 1 ) + ", program " + t.program + ")" );
+		}
+		trackList.setSelectedIndex( score.getCurrentTrackIndex() );
+		isUpdatingTrackList = false;
+		muteTrackMenuItem.setSelected( score.getCurrentTrack().isMuted );
+		soloTrackMenuItem.setSelected( score.getCurrentTrack().isSolo );
+		removeTrackMenuItem.setEnabled( score.getNumTracks() > 1 );
+		addTrackMenuItem.setEnabled( score.getNumTracks() < Score.MAX_TRACKS );
+	}
+
+	// Asks for the instrument (General MIDI program) of the current track.
+	private void chooseInstrument() {
+		Score score = canvas.score;
+		String [] choices = new String[ 128 ];
+		for ( int p = 0; p < choices.length; ++p )
+			choices[p] = p + ": Program " + p;
+		if ( synthesizer != null && synthesizer.getDefaultSoundbank() != null )
+			for ( Instrument instrument : synthesizer.getDefaultSoundbank().getInstruments() ) {
+				Patch patch = instrument.getPatch();
+				if ( patch.getBank() == 0 && patch.getProgram() < choices.length )
+					choices[ patch.getProgram() ] = patch.getProgram() + ": " + instrument.getName().trim();
+			}
+		Object choice = JOptionPane.showInputDialog(
+			frame,
+			"Instrument of " + score.getCurrentTrack().name + ":",
+			"Instrument",
+			JOptionPane.QUESTION_MESSAGE,
+			null,
+			choices,
+			choices[ score.getCurrentTrack().program ]
+		);
+		if ( choice == null )
+			return;
+		score.setTrackProgram( score.getCurrentTrackIndex(), Arrays.asList( choices ).indexOf( choice ) );
+		score.publish();
+		updateTrackList();
+	}
 
 	public void setMusicPlaying( boolean flag ) {
 		isMusicPlaying = flag;
@@ -1029,6 +234,11 @@ public class SimplePianoRoll implements ActionListener {
 			highlightMajorScale = highlightMajorScaleMenuItem.isSelected();
 			canvas.repaint();
 		}
+		else if ( source == showPerformanceOverlayMenuItem ) {
+			showPerformanceOverlay = showPerformanceOverlayMenuItem.isSelected();
+			PerformanceMetrics.setEnabled( showPerformanceOverlay );
+			canvas.repaint();
+		}
 		else if ( source == frameAllMenuItem ) {
 			canvas.frameAll();
 			canvas.repaint();
@@ -1080,6 +290,64 @@ public class SimplePianoRoll implements ActionListener {
 		else if( source == loadMenuItem ) {
 			canvas.loadMusic();
 		}
+		else if( source == exportMidiMenuItem ) {
+			canvas.exportMidi();
+		}
+		else if( source == importMidiMenuItem ) {
+			canvas.importMidi();
+		}
+		else if( source == renderWavMenuItem ) {
+			canvas.renderWav();
+		}
+		else if ( source == addTrackMenuItem ) {
+			int index = canvas.score.addTrack();
+			if ( index >= 0 ) {
+				canvas.score.setCurrentTrack( index );
+				canvas.score.publish();
+				updateTrackList();
+				canvas.repaint();
+			}
+		}
+		else if ( source == removeTrackMenuItem ) {
+			Score score = canvas.score;
+			if ( score.getNumTracks() > 1 ) {
+				int response = JOptionPane.showConfirmDialog(
+					frame,
+					"Really remove " + score.getCurrentTrack().name + " and its notes?",
+					"Confirm Remove Track",
+					JOptionPane.YES_NO_OPTION
+				);
+				if ( response == JOptionPane.YES_OPTION ) {
+					score.removeTrack( score.getCurrentTrackIndex() );
+					score.publish();
+					updateTrackList();
+					canvas.repaint();
+				}
+			}
+		}
+		else if ( source == muteTrackMenuItem ) {
+			canvas.score.setTrackMuted( canvas.score.getCurrentTrackIndex(), muteTrackMenuItem.isSelected() );
+			canvas.score.publish();
+			canvas.repaint();
+		}
+		else if ( source == soloTrackMenuItem ) {
+			canvas.score.setTrackSolo( canvas.score.getCurrentTrackIndex(), soloTrackMenuItem.isSelected() );
+			canvas.score.publish();
+			canvas.repaint();
+		}
+		else if ( source == instrumentMenuItem ) {
+			chooseInstrument();
+		}
+		else if ( source == snapList ) {
+			snapSubdivision = SNAP_SUBDIVISIONS[ snapList.getSelectedIndex() ];
+		}
+		else if ( source == trackList ) {
+			if ( ! isUpdatingTrackList && trackList.getSelectedIndex() >= 0 ) {
+				canvas.score.setCurrentTrack( trackList.getSelectedIndex() );
+				updateTrackList();
+				canvas.repaint();
+			}
+		}
 		else if ( source == scaleList ) {
 			if (scaleList.getSelectedIndex() == 1)
 				gammePermise = gammePentatonique;
@@ -1103,11 +371,11 @@ public class SimplePianoRoll implements ActionListener {
 				                 					( y - Score.midiNoteNumberOfLowestPitch + Score.pitchClassOfLowestPitch )
 				                 					% Score.numPitchesInOctave];
 				if (Math.random() > 0.95f && Arrays.asList((gammePermise)).contains(s)) {
-					canvas.score.grid[x][y-21] = true;
-					canvas.score.time[x][y-21] = Constant.tempsNoire;
+					canvas.score.setNote( x, y-21, Constant.tempsNoire );
 				}
 					
 			}
+		canvas.score.publish();
 		canvas.repaint();
 	}
 
@@ -1158,6 +426,18 @@ public class SimplePianoRoll implements ActionListener {
 				loadMenuItem = new JMenuItem("Load");
 				loadMenuItem.addActionListener(this);
 				menu.add(loadMenuItem);
+
+				exportMidiMenuItem = new JMenuItem("Export MIDI");
+				exportMidiMenuItem.addActionListener(this);
+				menu.add(exportMidiMenuItem);
+
+				importMidiMenuItem = new JMenuItem("Import MIDI");
+				importMidiMenuItem.addActionListener(this);
+				menu.add(importMidiMenuItem);
+
+				renderWavMenuItem = new JMenuItem("Render WAV");
+				renderWavMenuItem.addActionListener(this);
+				menu.add(renderWavMenuItem);
 				menu.addSeparator();
 				
 				generateMusicMenuItem = new JMenuItem("Generate");
@@ -1176,6 +456,11 @@ public class SimplePianoRoll implements ActionListener {
 				highlightMajorScaleMenuItem.addActionListener(this);
 				menu.add(highlightMajorScaleMenuItem);
 
+				showPerformanceOverlayMenuItem = new JCheckBoxMenuItem("Show Performance Overlay");
+				showPerformanceOverlayMenuItem.setSelected( showPerformanceOverlay );
+				showPerformanceOverlayMenuItem.addActionListener(this);
+				menu.add(showPerformanceOverlayMenuItem);
+
 				menu.addSeparator();
 
 				frameAllMenuItem = new JMenuItem("Frame All");
@@ -1187,6 +472,29 @@ public class SimplePianoRoll implements ActionListener {
 				autoFrameMenuItem.addActionListener(this);
 				menu.add(autoFrameMenuItem);
 			menuBar.add(menu);
+			menu = new JMenu("Track");
+				addTrackMenuItem = new JMenuItem("Add Track");
+				addTrackMenuItem.addActionListener(this);
+				menu.add(addTrackMenuItem);
+
+				removeTrackMenuItem = new JMenuItem("Remove Track");
+				removeTrackMenuItem.addActionListener(this);
+				menu.add(removeTrackMenuItem);
+
+				menu.addSeparator();
+
+				muteTrackMenuItem = new JCheckBoxMenuItem("Mute Track");
+				muteTrackMenuItem.addActionListener(this);
+				menu.add(muteTrackMenuItem);
+
+				soloTrackMenuItem = new JCheckBoxMenuItem("Solo Track");
+				soloTrackMenuItem.addActionListener(this);
+				menu.add(soloTrackMenuItem);
+
+				instrumentMenuItem = new JMenuItem("Instrument...");
+				instrumentMenuItem.addActionListener(this);
+				menu.add(instrumentMenuItem);
+			menuBar.add(menu);
 			menu = new JMenu("Help");
 				aboutMenuItem = new JMenuItem("About");
 				aboutMenuItem.addActionListener(this);
@@ -1262,11 +570,19 @@ public class SimplePianoRoll implements ActionListener {
 			rolloverModeButtonGroup.add( playNoteUponRolloverIfSpecialKeyHeldDownRadioButton );
 			
 			comboPanel.add( labelTempo );
+			comboPanel.add( labelStatus );
 			
 			scaleList.addActionListener(this);			
 			scaleList.setSelectedIndex(4);
 			comboPanel.add(scaleList);
 
+			snapList.addActionListener(this);
+			comboPanel.add(snapList);
+
+			trackList.addActionListener(this);
+			comboPanel.add(trackList);
+			updateTrackList();
+
 		frame.pack();
 		frame.setVisible( true );
 
@@ -1274,7 +590,53 @@ public class SimplePianoRoll implements ActionListener {
 
 	}
 
+	// Renders a .beatz or .mid file to a .wav file, without opening a window:
+	//    SimplePianoRoll --render <input> <output.wav> [<milliseconds per beat>]
+	// (see OfflineRenderer for the JVM option this needs).
+	static void renderFromCommandLine( String[] args ) {
+		if ( args.length < 3 ) {
+			System.out.println( "Usage: --render <input .beatz or .mid> <output .wav> [<milliseconds per beat>]" );
+			System.exit( 1 );
+		}
+		try {
+			File input = new File( args[1] );
+			long microsecondsPerBeat = 150000;
+			Score score;
+			if ( input.getName().endsWith( ".mid" ) || input.getName().endsWith( ".midi" ) ) {
+				score = new Score();
+				long m = MidiFileConverter.read( input, score );
+				if ( m > 0 )
+					microsecondsPerBeat = m;
+			}
+			else score = BeatzFormat.read( input );
+			if ( args.length > 3 )
+				microsecondsPerBeat = Integer.parseInt( args[3] ) * 1000L;
+
+			OfflineRenderer renderer = new OfflineRenderer();
+			renderer.render( score, microsecondsPerBeat, new File( args[2] ) );
+			System.out.println( renderer.getSummary() );
+		}
+		catch ( IOException e ) {
+			e.printStackTrace();
+			System.exit( 1 );
+		}
+	}
+
 	public static void main( String[] args ) {
+		if ( args.length > 0 && args[0].equals( "--render" ) ) {
+			renderFromCommandLine( args );
+			return;
+		}
+		if ( args.length > 0 && args[0].equals( "--batch" ) ) {
+			// No window is opened, so this works without a display.
+			System.setProperty( "java.awt.headless", "true" );
+			BatchProcessor batch = BatchProcessor.fromCommandLine( args );
+			if ( batch == null ) {
+				BatchProcessor.printUsage();
+				System.exit( 1 );
+			}
+			System.exit( batch.run() == 0 ? 0 : 1 );
+		}
 		// Schedule the creation of the UI for the event-dispatching thread.
 		javax.swing.SwingUtilities.invokeLater(
 			new Runnable() {
@@ -0,0 +1,125 @@
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// The threads on which the application does its background work,
+// shared by every canvas, so that their number doesn't grow with the number of canvases:
+//
+// - a single timing thread (a high priority platform thread),
+//   on which every BeatScheduler fires its beats;
+// - a task executor for blocking work (file I/O, conversions, batch processing),
+//   which starts one virtual thread per task on JDK 21 and later,
+//   and otherwise uses a cached pool of daemon threads.
+//
+// Virtual threads are looked up by reflection, so that the code still compiles and runs
+// on older JDKs. The timing thread is deliberately not a virtual thread:
+// a virtual thread could be kept waiting by other virtual threads busy on its carrier,
+// which would show up as late beats.
+public class TaskExecutors {
+
+	private static boolean usesVirtualThreads = false;
+	private static final ExecutorService taskExecutor = createTaskExecutor();
+
+	private static ThreadFactory createThreadFactory( final String name, final int priority ) {
+		final AtomicInteger numThreads = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread( Runnable r ) {
+				int n = numThreads.incrementAndGet();
+				Thread t = new Thread( r, n == 1 ? name : name + " " + n );
+				t.setDaemon( true );
+				t.setPriority( priority );
+				return t;
+			}
+		};
+	}
+
+	private static ExecutorService createTaskExecutor() {
+		try {
+			Method m = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			ExecutorService executor = (ExecutorService)m.invoke( null );
+			usesVirtualThreads = true;
+			return executor;
+		}
+		catch ( ReflectiveOperationException | RuntimeException e ) {
+			// before JDK 21 (or with virtual threads still in preview): use platform threads
+		}
+		return Executors.newCachedThreadPool( createThreadFactory( "Background task", Thread.NORM_PRIORITY ) );
+	}
+
+	// Created on first use, since a JVM that only does batch processing never needs it.
+	private static class Timing {
+		static final ScheduledThreadPoolExecutor executor
+			= new ScheduledThreadPoolExecutor( 1, createThreadFactory( "Beat clock", Thread.MAX_PRIORITY ) );
+		static {
+			// so that the beats of stopped schedulers don't pile up in the queue
+			executor.setRemoveOnCancelPolicy( true );
+		}
+	}
+
+	public static ScheduledExecutorService getTimingExecutor() {
+		return Timing.executor;
+	}
+
+	// Never shut it down: it is shared.
+	public static ExecutorService getTaskExecutor() {
+		return taskExecutor;
+	}
+
+	public static boolean usesVirtualThreads() {
+		return usesVirtualThreads;
+	}
+
+	// Returns an executor that runs its tasks on the task executor,
+	// one at a time and in the order they were given.
+	public static SerialExecutor newSerialExecutor() {
+		return new SerialExecutor( taskExecutor );
+	}
+
+	public static class SerialExecutor implements Executor {
+		private final Executor executor;
+		private final ArrayDeque< Runnable > pending = new ArrayDeque< Runnable >();
+		private boolean isRunning = false;
+
+		private SerialExecutor( Executor executor ) {
+			this.executor = executor;
+		}
+
+		public synchronized void execute( final Runnable task ) {
+			pending.add( new Runnable() {
+				public void run() {
+					try {
+						task.run();
+					}
+					finally {
+						runNext();
+					}
+				}
+			} );
+			if ( ! isRunning )
+				runNext();
+		}
+
+		private synchronized void runNext() {
+			Runnable next = pending.poll();
+			isRunning = next != null;
+			if ( isRunning )
+				executor.execute( next );
+		}
+
+		// Drops the tasks that haven't started yet, and returns how many there were.
+		// The task that is running, if any, runs to completion.
+		public synchronized int cancelPending() {
+			int n = pending.size();
+			pending.clear();
+			return n;
+		}
+	}
+
+}
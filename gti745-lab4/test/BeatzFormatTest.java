@@ -0,0 +1,153 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class BeatzFormatTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// Lists the tracks of the score, and the notes of each, in order.
+	private static String describe( Score score ) {
+		StringBuilder b = new StringBuilder();
+		b.append( score.numBeats ).append( " beats\n" );
+		for ( int t = 0; t < score.getNumTracks(); ++t ) {
+			ScoreTrack track = score.getTrack( t );
+			b.append( track.name ).append( ", channel " ).append( track.channel ).append( ", program " ).append( track.program )
+				.append( ", muted " ).append( track.isMuted ).append( ", solo " ).append( track.isSolo )
+				.append( ", color " ).append( Integer.toHexString( track.getRGB() ) ).append( ':' );
+			NoteStore.Cursor c = track.notes.cursor( 0, score.numBeats );
+			while ( c.next() )
+				b.append( ' ' ).append( c.beat() ).append( '+' ).append( c.offset() ).append( '/' ).append( c.pitch() ).append( '/' ).append( c.duration() );
+			b.append( '\n' );
+		}
+		return b.toString();
+	}
+
+	private static void putVarint( ByteBuffer buffer, int value ) {
+		while ( value >= 0x80 ) {
+			buffer.put( (byte)( ( value & 0x7F ) | 0x80 ) );
+			value >>>= 7;
+		}
+		buffer.put( (byte)value );
+	}
+
+	private File writeBytes( ByteBuffer buffer ) throws IOException {
+		buffer.flip();
+		File file = folder.newFile();
+		FileOutputStream out = new FileOutputStream( file );
+		try {
+			out.getChannel().write( buffer );
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+
+	@Test
+	public void writtenScoreReadsBackTheSame() throws IOException {
+		Score score = new Score();
+		score.setNumBeats( 300 );
+		score.addTrack();
+		score.addTrack();
+		score.setTrackName( 1, "Batterie \u00e9" );
+		score.setTrackChannel( 1, 9 );
+		score.setTrackProgram( 1, 0 );
+		score.setTrackMuted( 1, true );
+		score.setTrackProgram( 2, 73 );
+		score.setTrackSolo( 2, true );
+		score.getTrack( 2 ).setRGB( 0x336699 );
+		score.setNote( 0, 0, 0, 0, Constant.tempsNoire );
+		score.setNote( 0, 0, 0, score.numPitches - 1, Constant.tempsRonde );
+		score.setNote( 0, 0, 240, 12, Constant.tempsCroche );
+		// beats far enough apart that their difference takes more than one byte
+		score.setNote( 0, 299, 479, 30, NoteStore.MAX_DURATION );
+		score.setNote( 1, 4, 120, 5, 1 );
+		score.setNote( 1, 4, 0, 5, Constant.tempsDoubleCroche );
+		for ( int beat = 0; beat < 300; beat += 7 )
+			score.setNote( 2, beat, beat % 4 * 120, beat % score.numPitches, 100 + beat );
+
+		File file = folder.newFile( "score.beatz" );
+		BeatzFormat.write( score, file );
+		Score read = BeatzFormat.read( file );
+		assertEquals( describe( score ), describe( read ) );
+		assertEquals( score.getNumNotes(), read.getNumNotes() );
+		// no temporary file is left behind
+		assertEquals( 1, folder.getRoot().listFiles().length );
+	}
+
+	@Test
+	public void version3DurationsAreConvertedToTicks() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate( 1000 );
+		buffer.putInt( BeatzFormat.MAGIC );
+		buffer.putInt( 3 );
+		buffer.putInt( 16 ); // beats
+		buffer.putInt( 20 ); // pitches
+		buffer.putInt( 4 ); // notes
+		buffer.putInt( 2 ); // tracks
+		for ( int t = 0; t < 2; ++t ) {
+			buffer.put( (byte)( 9 * t ) ); // channel
+			buffer.put( (byte)( 40 + t ) ); // program
+			buffer.put( (byte)0 ); // flags
+			buffer.putInt( 0x102030 * ( t + 1 ) );
+			buffer.putShort( (short)1 );
+			buffer.put( (byte)( 'A' + t ) );
+			buffer.putInt( 2 );
+			putVarint( buffer, 1 + t );
+			buffer.put( (byte)( 3 + t ) );
+			putVarint( buffer, 100 ); // a beat
+			putVarint( buffer, 14 - t );
+			buffer.put( (byte)19 );
+			putVarint( buffer, t == 0 ? 33 : BeatzFormat.OLD_MAX_DURATION );
+		}
+		Score score = BeatzFormat.read( writeBytes( buffer ) );
+
+		assertEquals( 2, score.getNumTracks() );
+		int longest = BeatzFormat.convertOldDuration( BeatzFormat.OLD_MAX_DURATION );
+		assertEquals( NoteStore.MAX_DURATION, longest );
+		assertEquals(
+			"16 beats\n"
+				+ "A, channel 0, program 40, muted false, solo false, color 102030: 1+0/3/480 15+0/19/158\n"
+				+ "B, channel 9, program 41, muted false, solo false, color 204060: 2+0/4/480 15+0/19/" + longest + "\n",
+			describe( score )
+		);
+	}
+
+	@Test
+	public void version2IsReadIntoTheFirstTrack() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate( 1000 );
+		buffer.putInt( BeatzFormat.MAGIC );
+		buffer.putInt( 2 );
+		buffer.putInt( 200 ); // beats
+		buffer.putInt( 30 ); // pitches
+		buffer.putInt( 3 ); // notes
+		putVarint( buffer, 0 );
+		buffer.put( (byte)0 );
+		putVarint( buffer, 50 ); // half a beat
+		putVarint( buffer, 0 );
+		buffer.put( (byte)29 );
+		putVarint( buffer, 400 ); // takes two bytes
+		putVarint( buffer, 150 ); // takes two bytes
+		buffer.put( (byte)7 );
+		putVarint( buffer, 1 );
+		Score score = BeatzFormat.read( writeBytes( buffer ) );
+
+		assertEquals( 1, score.getNumTracks() );
+		assertEquals( 200, score.numBeats );
+		assertEquals( 3, score.getNumNotes() );
+		assertEquals( 240, score.getTrack( 0 ).notes.getDuration( 0, 0, 0 ) );
+		assertEquals( 4 * Constant.tempsNoire, score.getTrack( 0 ).notes.getDuration( 0, 0, 29 ) );
+		// a hundredth of a beat is 4.8 ticks, rounded to 5
+		assertEquals( 5, score.getTrack( 0 ).notes.getDuration( 150, 0, 7 ) );
+	}
+
+}
@@ -0,0 +1,116 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+
+public class LegacyBeatzParserTest {
+
+	private static final Charset US_ASCII = Charset.forName( "US-ASCII" );
+
+	// Hands out at most ``chunkSize'' bytes per read, so that numbers and line ends get split between chunks.
+	private static class ChunkedInputStream extends InputStream {
+		private final ByteArrayInputStream in;
+		private final int chunkSize;
+		ChunkedInputStream( byte [] bytes, int chunkSize ) {
+			in = new ByteArrayInputStream( bytes );
+			this.chunkSize = chunkSize;
+		}
+		public int read() {
+			return in.read();
+		}
+		public int read( byte [] b, int offset, int length ) {
+			return in.read( b, offset, Math.min( length, chunkSize ) );
+		}
+	}
+
+	// Lists the notes of the first track, in order.
+	private static String describeNotes( Score score ) {
+		StringBuilder b = new StringBuilder();
+		b.append( score.numBeats ).append( " beats:" );
+		NoteStore.Cursor c = score.getTrack( 0 ).notes.cursor();
+		while ( c.next() )
+			b.append( ' ' ).append( c.beat() ).append( '/' ).append( c.pitch() ).append( '/' ).append( c.duration() );
+		return b.toString();
+	}
+
+	private static Score parse( String text ) throws IOException {
+		Score score = new Score();
+		new LegacyBeatzParser().parse( ByteBuffer.wrap( text.getBytes( US_ASCII ) ), score );
+		return score;
+	}
+
+	private static void assertRejected( String text ) {
+		try {
+			parse( text );
+			fail( "parsed: " + text );
+		}
+		catch ( IOException e ) { }
+	}
+
+	@Test
+	public void parsesCellsAndSkipsBlankLines() throws IOException {
+		Score score = parse( "0;100;0;\r\n\n 50 ; 0;\t25\n0;0;0;65535;\n" );
+		assertEquals( "3 beats: 0/1/480 1/0/240 1/2/120 2/3/" + NoteStore.MAX_DURATION, describeNotes( score ) );
+	}
+
+	@Test
+	public void cellsBeyondTheScoreAreIgnored() throws IOException {
+		Score score = new Score();
+		StringBuilder text = new StringBuilder();
+		for ( int pitch = 0; pitch < score.numPitches + 3; ++pitch )
+			text.append( pitch % 2 == 0 ? "100;" : "0;" );
+		LegacyBeatzParser parser = new LegacyBeatzParser();
+		parser.parse( ByteBuffer.wrap( text.toString().getBytes( US_ASCII ) ), score );
+		assertEquals( 1, parser.getNumRows() );
+		assertEquals( score.numPitches + 3, parser.getMaxColumns() );
+		assertEquals( score.numPitches + 3, parser.getNumCells() );
+		assertEquals( ( score.numPitches + 1 ) / 2, parser.getNumNotes() );
+		assertEquals( ( score.numPitches + 3 + 1 ) / 2 - parser.getNumNotes(), parser.getNumIgnoredNotes() );
+		assertEquals( parser.getNumNotes(), score.getNumNotes() );
+	}
+
+	@Test
+	public void malformedInputIsRejected() {
+		assertRejected( "0;;0;\n" );
+		assertRejected( "0;x;0;\n" );
+		assertRejected( "0;-5;\n" );
+		assertRejected( "0;65536;\n" );
+	}
+
+	@Test
+	public void inputFedInSmallChunksParsesTheSame() throws IOException {
+		// lines of different lengths, with the last one lacking its ';' and its line end
+		StringBuilder text = new StringBuilder();
+		for ( int beat = 0; beat < 40; ++beat ) {
+			for ( int pitch = 0; pitch < beat % 23 + 1; ++pitch )
+				text.append( ( beat * 31 + pitch * 7 ) % 5 == 0 ? 12345 % ( beat + pitch + 2 ) : 0 ).append( ';' );
+			text.append( beat % 3 == 0 ? "\r\n" : "\n" );
+		}
+		text.append( "0;0;1234" );
+		byte [] bytes = text.toString().getBytes( US_ASCII );
+
+		Score expected = new Score();
+		LegacyBeatzParser expectedParser = new LegacyBeatzParser();
+		expectedParser.parse( ByteBuffer.wrap( bytes ), expected );
+		assertEquals( 41, expected.numBeats );
+		assertEquals( BeatzFormat.convertOldDuration( 1234 ), expected.getTrack( 0 ).notes.getDuration( 40, 0, 2 ) );
+
+		for ( int chunkSize : new int[] { 1, 2, 3, 7, 64 } ) {
+			Score score = new Score();
+			LegacyBeatzParser parser = new LegacyBeatzParser();
+			parser.parse( new ChunkedInputStream( bytes, chunkSize ), score );
+			assertEquals( "chunks of " + chunkSize, describeNotes( expected ), describeNotes( score ) );
+			assertEquals( expectedParser.getNumBytes(), parser.getNumBytes() );
+			assertEquals( expectedParser.getNumCells(), parser.getNumCells() );
+			assertEquals( expectedParser.getNumNotes(), parser.getNumNotes() );
+		}
+	}
+
+}
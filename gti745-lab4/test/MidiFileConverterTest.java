@@ -0,0 +1,95 @@
+import static org.junit.Assert.assertEquals;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+
+public class MidiFileConverterTest {
+
+	// A score with a track on each of the given channels, each with the same few notes.
+	private static Score createScore( int ... channels ) {
+		Score score = new Score();
+		score.setNumBeats( 16 );
+		for ( int t = 0; t < channels.length; ++t ) {
+			if ( t > 0 )
+				score.addTrack();
+			score.setTrackChannel( t, channels[t] );
+			score.setTrackProgram( t, 8 * t );
+			score.setNote( t, 0, 0, 39, Constant.tempsNoire );
+			score.setNote( t, 1, 240, 40, Constant.tempsCroche );
+			score.setNote( t, 2, 0, 40, Constant.tempsCroche );
+			score.setNote( t, 15, 0, 87, Constant.tempsBlanche );
+		}
+		return score;
+	}
+
+	// Lists the notes of each track, in order.
+	private static String describeNotes( Score score ) {
+		StringBuilder b = new StringBuilder();
+		for ( int t = 0; t < score.getNumTracks(); ++t ) {
+			ScoreTrack track = score.getTrack( t );
+			b.append( "channel " ).append( track.channel ).append( ", program " ).append( track.program ).append( ':' );
+			NoteStore.Cursor c = track.notes.cursor( 0, score.numBeats );
+			while ( c.next() )
+				b.append( ' ' ).append( c.beat() ).append( '+' ).append( c.offset() ).append( '/' ).append( c.pitch() ).append( '/' ).append( c.duration() );
+			b.append( '\n' );
+		}
+		return b.toString();
+	}
+
+	// Returns the number of note-ons minus the number of note-offs on the given channel.
+	private static int countUnmatchedNoteOns( Sequence sequence, int channel ) {
+		int count = 0;
+		for ( Track track : sequence.getTracks() )
+			for ( int i = 0; i < track.size(); ++i ) {
+				MidiEvent event = track.get( i );
+				MidiMessage message = event.getMessage();
+				if ( ! ( message instanceof ShortMessage ) || ( (ShortMessage)message ).getChannel() != channel )
+					continue;
+				int command = ( (ShortMessage)message ).getCommand();
+				if ( command == ShortMessage.NOTE_ON )
+					count ++;
+				else if ( command == ShortMessage.NOTE_OFF )
+					count --;
+			}
+		return count;
+	}
+
+	private static void checkRoundTrip( int fileType, int ... channels ) throws Exception {
+		Score score = createScore( channels );
+		Sequence sequence = MidiFileConverter.toSequence( score, 150000, fileType );
+		for ( int channel : channels )
+			assertEquals( "channel " + channel, 0, countUnmatchedNoteOns( sequence, channel ) );
+
+		Score imported = new Score();
+		assertEquals( 150000, MidiFileConverter.fromSequence( sequence, imported ) );
+		assertEquals( describeNotes( score ), describeNotes( imported ) );
+	}
+
+	@Test
+	public void exportsTheDrumChannel() throws Exception {
+		checkRoundTrip( 0, 9 );
+		checkRoundTrip( 1, 9 );
+	}
+
+	@Test
+	public void exportsTheLastChannel() throws Exception {
+		checkRoundTrip( 0, 15 );
+		checkRoundTrip( 1, 15 );
+	}
+
+	@Test
+	public void exportsTracksOnAllTheChannels() throws Exception {
+		int [] channels = new int[ ScoreTrack.NUM_CHANNELS ];
+		for ( int c = 0; c < channels.length; ++c )
+			channels[c] = c;
+		checkRoundTrip( 0, channels );
+		checkRoundTrip( 1, channels );
+	}
+
+}
@@ -0,0 +1,145 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class NoteStoreTest {
+
+	// Lists the notes visited by the cursor, as beat+offset/pitch/duration.
+	private static ArrayList< String > visit( NoteStore.Cursor c ) {
+		ArrayList< String > notes = new ArrayList< String >();
+		while ( c.next() )
+			notes.add( c.beat() + "+" + c.offset() + "/" + c.pitch() + "/" + c.duration() );
+		return notes;
+	}
+
+	@Test
+	public void putAddsANoteOrChangesItsDuration() {
+		NoteStore store = new NoteStore();
+		assertTrue( store.isEmpty() );
+		assertTrue( store.put( 3, 0, 10, Constant.tempsNoire ) );
+		assertTrue( store.put( 3, 120, 10, Constant.tempsCroche ) );
+		assertFalse( store.put( 3, 0, 10, Constant.tempsBlanche ) );
+		assertEquals( 2, store.size() );
+		assertEquals( 1, store.getNumOccupiedBeats() );
+		assertEquals( Constant.tempsBlanche, store.getDuration( 3, 0, 10 ) );
+		assertEquals( Constant.tempsCroche, store.getDuration( 3, 120, 10 ) );
+		assertEquals( 0, store.getDuration( 3, 0, 11 ) );
+		assertEquals( 0, store.getDuration( 4, 0, 10 ) );
+	}
+
+	@Test
+	public void containsFindsOnlyTheNotesThatWerePut() {
+		NoteStore store = new NoteStore();
+		store.put( 0, 0, 0, 1 );
+		store.put( 7, 479, NoteStore.MAX_PITCH, NoteStore.MAX_DURATION );
+		assertTrue( store.contains( 0, 0, 0 ) );
+		assertTrue( store.contains( 7, 479, NoteStore.MAX_PITCH ) );
+		assertFalse( store.contains( 7, 0, NoteStore.MAX_PITCH ) );
+		assertFalse( store.contains( 7, 479, 0 ) );
+		assertFalse( store.contains( 1, 0, 0 ) );
+		assertTrue( store.containsPitch( 7, NoteStore.MAX_PITCH ) );
+		assertFalse( store.containsPitch( 7, 0 ) );
+		assertEquals( NoteStore.MAX_DURATION, store.getDuration( 7, 479, NoteStore.MAX_PITCH ) );
+	}
+
+	@Test
+	public void removeDropsTheNoteAndEmptiedBeats() {
+		NoteStore store = new NoteStore();
+		store.put( 2, 0, 5, Constant.tempsNoire );
+		store.put( 2, 240, 5, Constant.tempsCroche );
+		store.put( 9, 0, 5, Constant.tempsNoire );
+		assertFalse( store.remove( 2, 120, 5 ) );
+		assertFalse( store.remove( 4, 0, 5 ) );
+		assertTrue( store.remove( 2, 0, 5 ) );
+		assertFalse( store.contains( 2, 0, 5 ) );
+		assertTrue( store.contains( 2, 240, 5 ) );
+		assertEquals( 2, store.size() );
+		assertTrue( store.remove( 2, 240, 5 ) );
+		assertFalse( store.containsPitch( 2, 5 ) );
+		assertNull( store.copyNotesAtBeat( 2 ) );
+		assertEquals( 1, store.getNumOccupiedBeats() );
+		assertEquals( 9, store.nextOccupiedBeat( 0 ) );
+		assertEquals( -1, store.nextOccupiedBeat( 10 ) );
+		store.clear();
+		assertTrue( store.isEmpty() );
+		assertEquals( 0, store.getNumOccupiedBeats() );
+	}
+
+	@Test
+	public void cursorVisitsNotesInOrderOfBeatThenOffsetThenPitch() {
+		NoteStore store = new NoteStore();
+		store.put( 5, 240, 3, 1 );
+		store.put( 5, 0, 7, 2 );
+		store.put( 1, 0, 9, 3 );
+		store.put( 5, 0, 2, 4 );
+		store.put( 12, 60, 0, 5 );
+		store.put( 5, 240, 1, 6 );
+
+		ArrayList< String > expected = new ArrayList< String >();
+		expected.add( "1+0/9/3" );
+		expected.add( "5+0/2/4" );
+		expected.add( "5+0/7/2" );
+		expected.add( "5+240/1/6" );
+		expected.add( "5+240/3/1" );
+		expected.add( "12+60/0/5" );
+		assertEquals( expected, visit( store.cursor() ) );
+		// the range is [beatMin,beatMax)
+		assertEquals( expected.subList( 1, 5 ), visit( store.cursor( 2, 12 ) ) );
+		assertEquals( expected.subList( 0, 1 ), visit( store.cursor( 0, 5 ) ) );
+		assertTrue( visit( store.cursor( 6, 12 ) ).isEmpty() );
+		assertTrue( visit( store.cursor( 5, 5 ) ).isEmpty() );
+
+		assertArrayEquals(
+			new int[] { NoteStore.pack( 0, 2, 4 ), NoteStore.pack( 0, 7, 2 ), NoteStore.pack( 240, 1, 6 ), NoteStore.pack( 240, 3, 1 ) },
+			store.copyNotesAtBeat( 5 )
+		);
+	}
+
+	@Test
+	public void randomEditsMatchASetOfCells() {
+		final int numBeats = 64, numOffsets = 4, numPitches = 16;
+		int [][][] duration = new int[ numBeats ][ numOffsets ][ numPitches ];
+		NoteStore store = new NoteStore();
+		Random random = new Random( 745 );
+		for ( int i = 0; i < 5000; ++i ) {
+			int beat = random.nextInt( numBeats ), offset = random.nextInt( numOffsets ), pitch = random.nextInt( numPitches );
+			if ( random.nextInt( 3 ) == 0 ) {
+				assertEquals( duration[beat][offset][pitch] != 0, store.remove( beat, offset * 120, pitch ) );
+				duration[beat][offset][pitch] = 0;
+			}
+			else {
+				int d = 1 + random.nextInt( NoteStore.MAX_DURATION );
+				assertEquals( duration[beat][offset][pitch] == 0, store.put( beat, offset * 120, pitch, d ) );
+				duration[beat][offset][pitch] = d;
+			}
+		}
+
+		int numNotes = 0;
+		NoteStore.Cursor c = store.cursor();
+		for ( int beat = 0; beat < numBeats; ++beat )
+			for ( int offset = 0; offset < numOffsets; ++offset )
+				for ( int pitch = 0; pitch < numPitches; ++pitch ) {
+					assertEquals( duration[beat][offset][pitch], store.getDuration( beat, offset * 120, pitch ) );
+					if ( duration[beat][offset][pitch] == 0 )
+						continue;
+					numNotes ++;
+					// the cursor visits the same notes in the same order as these loops
+					assertTrue( c.next() );
+					assertEquals( beat, c.beat() );
+					assertEquals( offset * 120, c.offset() );
+					assertEquals( pitch, c.pitch() );
+					assertEquals( duration[beat][offset][pitch], c.duration() );
+				}
+		assertFalse( c.next() );
+		assertEquals( numNotes, store.size() );
+	}
+
+}
@@ -0,0 +1,231 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+
+import org.junit.Test;
+
+
+public class PlaybackEngineTest {
+
+	private static final long MICROSECONDS_PER_BEAT = 100000;
+
+	// A synthesizer whose clock is set by hand, and whose receiver records the messages it gets.
+	private static class FakeSynthesizer implements InvocationHandler {
+		long microsecondPosition = 0;
+		final ArrayList< Event > events = new ArrayList< Event >();
+		final Receiver receiver = new Receiver() {
+			public void send( MidiMessage message, long timeStamp ) {
+				ShortMessage m = (ShortMessage)message;
+				// a timestamp of -1 means right away
+				events.add( new Event( m.getCommand(), m.getChannel(), m.getData1(), timeStamp < 0 ? microsecondPosition : timeStamp, events.size() ) );
+			}
+			public void close() { }
+		};
+		Synthesizer create() {
+			return (Synthesizer)Proxy.newProxyInstance(
+				Synthesizer.class.getClassLoader(), new Class< ? >[] { Synthesizer.class }, this
+			);
+		}
+		public Object invoke( Object proxy, Method method, Object[] args ) {
+			if ( method.getName().equals( "getReceiver" ) ) return receiver;
+			if ( method.getName().equals( "getMicrosecondPosition" ) ) return microsecondPosition;
+			if ( method.getReturnType() == boolean.class ) return false;
+			return null;
+		}
+		// The events in the order the synthesizer plays them: by time, and then in the order they were sent.
+		ArrayList< Event > getEventsInTimeOrder() {
+			ArrayList< Event > sorted = new ArrayList< Event >( events );
+			Collections.sort( sorted, new Comparator< Event >() {
+				public int compare( Event a, Event b ) {
+					if ( a.time != b.time )
+						return a.time < b.time ? -1 : 1;
+					return a.index - b.index;
+				}
+			} );
+			return sorted;
+		}
+	}
+
+	private static class Event {
+		final int command, channel, midiNoteNumber;
+		final long time;
+		final int index; // in the order they were sent
+		Event( int command, int channel, int midiNoteNumber, long time, int index ) {
+			this.command = command;
+			this.channel = channel;
+			this.midiNoteNumber = midiNoteNumber;
+			this.time = time;
+			this.index = index;
+		}
+	}
+
+	// Calls pump() at the start of each beat in [firstBeat,lastBeat), as MyCanvas.beatElapsed() does.
+	private static void playBeats( PlaybackEngine engine, FakeSynthesizer synthesizer, Score score, int firstBeat, int lastBeat ) {
+		for ( int beat = firstBeat; beat < lastBeat; ++beat ) {
+			synthesizer.microsecondPosition = beat * MICROSECONDS_PER_BEAT;
+			engine.pump( score.getSnapshot() );
+		}
+	}
+
+	@Test
+	public void noNoteIsLeftSoundingAfterStop() {
+		Score score = new Score();
+		score.setNumBeats( 8 );
+		score.addTrack();
+		score.setTrackChannel( 1, 9 );
+		for ( int beat = 0; beat < 8; ++beat ) {
+			score.setNote( 0, beat, 0, 40 + beat, Constant.tempsRonde );
+			score.setNote( 1, beat, Constant.tempsCroche, 10, Constant.tempsDoubleCroche );
+		}
+		FakeSynthesizer synthesizer = new FakeSynthesizer();
+		PlaybackEngine engine = new PlaybackEngine( synthesizer.create() );
+		engine.start( score.publish(), 0, MICROSECONDS_PER_BEAT );
+		playBeats( engine, synthesizer, score, 1, 4 );
+		// in the middle of beat 3, when the notes of beats 4 and 5 are already queued
+		long stopTime = 3 * MICROSECONDS_PER_BEAT + MICROSECONDS_PER_BEAT / 2;
+		synthesizer.microsecondPosition = stopTime;
+		int numEventsBeforeStop = synthesizer.events.size();
+		engine.stop();
+
+		boolean [] isSounding = new boolean[ 16 * 128 ];
+		long [] noteOnTime = new long[ 16 * 128 ];
+		int numNotes = 0;
+		for ( Event e : synthesizer.getEventsInTimeOrder() ) {
+			int key = e.channel * 128 + e.midiNoteNumber;
+			if ( e.command == ShortMessage.NOTE_ON ) {
+				isSounding[ key ] = true;
+				noteOnTime[ key ] = e.time;
+				numNotes ++;
+			}
+			else if ( e.command == ShortMessage.NOTE_OFF ) {
+				// notes that could be heard when stop() was called end right away
+				if ( isSounding[ key ] && noteOnTime[ key ] <= stopTime && e.index >= numEventsBeforeStop )
+					assertEquals( stopTime, e.time );
+				isSounding[ key ] = false;
+			}
+		}
+		assertTrue( numNotes > 8 );
+		for ( int key = 0; key < isSounding.length; ++key )
+			assertTrue( "channel " + key / 128 + ", note " + key % 128 + " is stuck", ! isSounding[ key ] );
+	}
+
+	@Test
+	public void changingTheInstrumentWhilePlayingSendsAProgramChange() {
+		Score score = new Score();
+		score.setNumBeats( 8 );
+		score.addTrack();
+		score.setTrackChannel( 1, 3 );
+		for ( int beat = 0; beat < 8; ++beat ) {
+			score.setNote( 0, beat, 0, 40, Constant.tempsCroche );
+			score.setNote( 1, beat, 0, 50, Constant.tempsCroche );
+		}
+		FakeSynthesizer synthesizer = new FakeSynthesizer();
+		PlaybackEngine engine = new PlaybackEngine( synthesizer.create() );
+		engine.start( score.publish(), 0, MICROSECONDS_PER_BEAT );
+		playBeats( engine, synthesizer, score, 1, 3 );
+		int numEventsBeforeChange = synthesizer.events.size();
+		score.setTrackProgram( 1, 24 );
+		score.publish();
+		playBeats( engine, synthesizer, score, 3, 12 );
+
+		// a single program change, on the channel of the track, after the notes already sent
+		// and before the ones sent since
+		int numProgramChanges = 0;
+		long timeOfLastNoteBefore = 0, timeOfFirstNoteAfter = Long.MAX_VALUE, timeOfProgramChange = -1;
+		for ( int i = numEventsBeforeChange; i < synthesizer.events.size(); ++i ) {
+			Event e = synthesizer.events.get( i );
+			if ( e.command == ShortMessage.PROGRAM_CHANGE ) {
+				assertEquals( 3, e.channel );
+				assertEquals( 24, e.midiNoteNumber );
+				timeOfProgramChange = e.time;
+				numProgramChanges ++;
+			}
+			else if ( e.command == ShortMessage.NOTE_ON && e.channel == 3 )
+				timeOfFirstNoteAfter = Math.min( timeOfFirstNoteAfter, e.time );
+		}
+		for ( int i = 0; i < numEventsBeforeChange; ++i ) {
+			Event e = synthesizer.events.get( i );
+			if ( e.command == ShortMessage.NOTE_ON )
+				timeOfLastNoteBefore = Math.max( timeOfLastNoteBefore, e.time );
+		}
+		assertEquals( 1, numProgramChanges );
+		assertTrue( timeOfLastNoteBefore < timeOfProgramChange );
+		assertTrue( timeOfProgramChange <= timeOfFirstNoteAfter );
+	}
+
+	// Plays a score that has a note of a different pitch on each beat, resizing it to newNumBeats[i]
+	// at the start of beat resizeBeat[i] of the playback, and checks that each beat plays the note
+	// of the beat the cursor of MyCanvas is on. The beat at which each resize happens isn't checked:
+	// its notes were sent before the resize.
+	private static void checkResizeWhilePlaying( int numBeats, int [] resizeBeat, int [] newNumBeats ) {
+		final int firstPitch = 20;
+		Score score = new Score();
+		score.setNumBeats( 24 );
+		for ( int beat = 0; beat < 24; ++beat )
+			score.setNote( 0, beat, 0, firstPitch + beat, Constant.tempsDoubleCroche );
+		score.setNumBeats( numBeats );
+		FakeSynthesizer synthesizer = new FakeSynthesizer();
+		PlaybackEngine engine = new PlaybackEngine( synthesizer.create() );
+		engine.start( score.publish(), 0, MICROSECONDS_PER_BEAT );
+
+		int numBeatsPlayed = resizeBeat[ resizeBeat.length - 1 ] + 2 * numBeats;
+		int [] cursorBeat = new int[ numBeatsPlayed ];
+		boolean [] isChecked = new boolean[ numBeatsPlayed ];
+		int currentBeat = -1;
+		for ( int beat = 0, i = 0; beat < numBeatsPlayed; ++beat ) {
+			synthesizer.microsecondPosition = beat * MICROSECONDS_PER_BEAT;
+			isChecked[ beat ] = true;
+			if ( i < resizeBeat.length && resizeBeat[i] == beat ) {
+				score.setNumBeats( newNumBeats[i++] );
+				score.publish();
+				isChecked[ beat ] = false;
+			}
+			// as in MyCanvas.beatElapsed()
+			currentBeat += 1;
+			if ( currentBeat >= score.numBeats )
+				currentBeat = 0;
+			cursorBeat[ beat ] = currentBeat;
+			engine.pump( score.getSnapshot() );
+		}
+
+		int numNotesChecked = 0;
+		for ( Event e : synthesizer.getEventsInTimeOrder() ) {
+			int beat = (int)( e.time / MICROSECONDS_PER_BEAT );
+			if ( e.command != ShortMessage.NOTE_ON || beat >= numBeatsPlayed || ! isChecked[ beat ] )
+				continue;
+			assertEquals( "beat " + beat + " of the playback", firstPitch + cursorBeat[ beat ], e.midiNoteNumber - Score.midiNoteNumberOfLowestPitch );
+			numNotesChecked ++;
+		}
+		assertEquals( numBeatsPlayed - resizeBeat.length, numNotesChecked );
+	}
+
+	@Test
+	public void growingTheScoreWhilePlayingContinuesTheLoop() {
+		// in the middle of the second loop
+		checkResizeWhilePlaying( 8, new int[] { 10 }, new int[] { 12 } );
+		// on the last beat of the first loop, when the start of the next one is already sent
+		checkResizeWhilePlaying( 8, new int[] { 7 }, new int[] { 10 } );
+	}
+
+	@Test
+	public void shrinkingTheScoreWhilePlayingContinuesTheLoop() {
+		// before the beat being played
+		checkResizeWhilePlaying( 12, new int[] { 15 }, new int[] { 6 } );
+		// after the beat being played, which starts the loop again
+		checkResizeWhilePlaying( 12, new int[] { 21 }, new int[] { 4 } );
+		// several times in a row
+		checkResizeWhilePlaying( 12, new int[] { 5, 9, 10, 17 }, new int[] { 7, 16, 3, 9 } );
+	}
+
+}
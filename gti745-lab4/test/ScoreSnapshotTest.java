@@ -0,0 +1,128 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class ScoreSnapshotTest {
+
+	private static final int NUM_BEATS = 500;
+
+	// Lists the length of the snapshot, and the notes of each track, in order.
+	private static String describe( ScoreSnapshot s ) {
+		StringBuilder b = new StringBuilder();
+		b.append( s.numBeats ).append( " beats, " ).append( s.getNumNotes() ).append( " notes\n" );
+		for ( int t = 0; t < s.getNumTracks(); ++t ) {
+			b.append( "channel " ).append( s.getChannel( t ) ).append( ':' );
+			ScoreSnapshot.Cursor c = s.cursor( t, 0, Integer.MAX_VALUE );
+			while ( c.next() )
+				b.append( ' ' ).append( c.beat() ).append( '+' ).append( c.offset() ).append( '/' ).append( c.pitch() ).append( '/' ).append( c.duration() );
+			b.append( '\n' );
+		}
+		return b.toString();
+	}
+
+	private static Score createScore() {
+		Score score = new Score();
+		score.setNumBeats( NUM_BEATS );
+		score.addTrack();
+		score.addTrack();
+		score.setTrackChannel( 2, 9 );
+		return score;
+	}
+
+	// Adds or removes a note at random.
+	private static void edit( Score score, Random random ) {
+		int track = random.nextInt( score.getNumTracks() );
+		int beat = random.nextInt( NUM_BEATS ), offset = random.nextInt( 4 ) * 120, pitch = random.nextInt( 8 );
+		if ( random.nextInt( 3 ) == 0 )
+			score.removeNote( track, beat, offset, pitch );
+		else score.setNote( track, beat, offset, pitch, 1 + random.nextInt( Constant.tempsRonde ) );
+	}
+
+	// Checks the contract of canBePatchedFrom(): the notes of the two snapshots
+	// are the same at every beat that isn't listed among the changes since ``older''.
+	private static void checkPatch( ScoreSnapshot older, ScoreSnapshot newer ) {
+		HashSet< Long > changed = new HashSet< Long >();
+		for ( int i = newer.getFirstChangeSince( older ); i < newer.getNumChanges(); ++i )
+			changed.add( ( (long)newer.getChangedTrack( i ) << 32 ) | newer.getChangedBeat( i ) );
+		for ( int t = 0; t < newer.getNumTracks(); ++t )
+			for ( int beat = 0; beat < NUM_BEATS; ++beat ) {
+				if ( changed.contains( ( (long)t << 32 ) | beat ) )
+					continue;
+				int n = older.getNumNotesAtBeat( t, beat );
+				assertEquals( "track " + t + ", beat " + beat, n, newer.getNumNotesAtBeat( t, beat ) );
+				for ( int i = 0; i < n; ++i )
+					assertEquals( "track " + t + ", beat " + beat, older.getNote( t, beat, i ), newer.getNote( t, beat, i ) );
+			}
+	}
+
+	@Test
+	public void derivedSnapshotsMatchOnesBuiltFromScratch() {
+		Score score = createScore();
+		Random random = new Random( 745 );
+		ScoreSnapshot previous = score.publish();
+		for ( int i = 0; i < 300; ++i ) {
+			int numEdits = random.nextInt( 20 );
+			for ( int j = 0; j < numEdits; ++j )
+				edit( score, random );
+			if ( i % 50 == 0 )
+				score.setNumBeats( NUM_BEATS - i / 50 );
+			ScoreSnapshot s = score.publish();
+			assertEquals( describe( ScoreSnapshot.create( score ) ), describe( s ) );
+			assertTrue( s.canBePatchedFrom( previous ) );
+			checkPatch( previous, s );
+			previous = s;
+		}
+	}
+
+	@Test
+	public void tooManyEditsBetweenSnapshotsStartOver() {
+		Score score = createScore();
+		Random random = new Random( 7 );
+		ScoreSnapshot previous = score.publish();
+		while ( score.getNumNotes() < 3000 )
+			edit( score, random );
+		ScoreSnapshot s = score.publish();
+		assertEquals( describe( ScoreSnapshot.create( score ) ), describe( s ) );
+		assertFalse( s.canBePatchedFrom( previous ) );
+	}
+
+	@Test
+	public void patchingWorksAcrossALogRollover() {
+		Score score = createScore();
+		ArrayList< ScoreSnapshot > snapshots = new ArrayList< ScoreSnapshot >();
+		snapshots.add( score.publish() );
+		// One new note per snapshot, until the log has started over (after 4096 changes).
+		// Each note goes to a cell of its own, so that a change missing from the log
+		// isn't hidden by a later change to the same beat.
+		for ( int i = 0; i < 4300; ++i ) {
+			score.setNote( i % 3, i % NUM_BEATS, 0, i / NUM_BEATS, Constant.tempsNoire );
+			snapshots.add( score.publish() );
+		}
+		ScoreSnapshot latest = snapshots.get( snapshots.size() - 1 );
+		assertEquals( describe( ScoreSnapshot.create( score ) ), describe( latest ) );
+		assertFalse( latest.canBePatchedFrom( snapshots.get( 0 ) ) );
+
+		// the snapshots that can still be patched are the most recent ones
+		int numPatchable = 0;
+		for ( int i = 0; i < snapshots.size(); ++i ) {
+			ScoreSnapshot older = snapshots.get( i );
+			if ( ! latest.canBePatchedFrom( older ) ) {
+				assertEquals( "snapshot " + i, 0, numPatchable );
+				continue;
+			}
+			numPatchable ++;
+			if ( numPatchable == 1 || i % 97 == 0 || i >= snapshots.size() - 2 )
+				checkPatch( older, latest );
+		}
+		assertTrue( numPatchable > 1 );
+		assertTrue( numPatchable < snapshots.size() );
+	}
+
+}